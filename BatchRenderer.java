@@ -0,0 +1,165 @@
+/* class BatchRenderer
+ * Renders a range of frames with the software renderer on several worker
+ * threads at once. With the frame-by-frame clock every frame only depends
+ * on the seed and the frame number, so each worker builds its own copy of
+ * the scene and renders its own blocks of frames, seeking to the start
+ * of each (from the nearest snapshot, if the scene keeps Checkpoints,
+ * otherwise simulating through the frames in between without drawing
+ * them). All workers hand their frames to one FrameCapture, which
+ * writes them in frame order.
+ *
+ */
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+public class BatchRenderer
+{
+    // Number of consecutive frames rendered by a worker before it moves
+    // on to its next block
+    static final int blockSize = 8;
+
+    // Scene settings shared by all workers
+    private long seed;
+    private boolean nice;
+    private double clockSpeed;
+    private String dumpPrefix;
+    private SceneSpec spec;
+    private TrajectoryPlayer player;
+    private Checkpoints checkpoints;
+
+    // Profiler shared by all workers
+    private Profiler profiler;
+
+    // Image size
+    private int width, height;
+
+    // Number of workers, and threads each one rasterizes with
+    private int numWorkers, numThreads;
+
+    // Frame writing
+    private FrameCapture capture;
+
+    // ---------------------------------------------------------------
+
+    // Workers build their scenes like sc (which must already be built,
+    // so a random seed has been chosen)
+    public BatchRenderer(Scene sc, int w, int h, int workers)
+    {
+        seed = sc.seed;
+        nice = sc.nice;
+        clockSpeed = sc.clockSpeed;
+        dumpPrefix = sc.dumpPrefix;
+        spec = sc.spec;
+        player = sc.player;
+        checkpoints = sc.checkpoints;
+        profiler = sc.profiler;
+
+        width = w;
+        height = h;
+
+        numWorkers = Math.max(1, workers);
+        numThreads = Math.max(1, Runtime.getRuntime().availableProcessors() /
+                                 numWorkers);
+    }
+
+    // Render and dump frames first to first+frames-1, then wait for the
+    // output to be written
+    public void render(final int first, final int frames)
+    {
+        ExecutorService workers = Executors.newFixedThreadPool(numWorkers);
+        Vector<Future<Object>> done = new Vector<Future<Object>>();
+
+        capture = new FrameCapture(dumpPrefix);
+        capture.profiler = profiler;
+        capture.setFirstFrame(first);
+
+        for (int i = 0; i < numWorkers; i++) {
+            final int worker = i;
+
+            done.add(workers.submit(new Callable<Object>() {
+                    public Object call() {
+                        renderBlocks(worker, first, frames);
+                        return null;
+                    }
+                }));
+        }
+
+        try {
+            for (Future<Object> f : done) {
+                f.get();
+            }
+        } catch (Exception e) {
+            System.out.println(e);
+            e.printStackTrace();
+            System.exit(-1);
+        }
+
+        workers.shutdown();
+        capture.finish();
+    }
+
+    // ---------------------------------------------------------------
+
+    // Work done by one worker: render the frames of its own blocks
+    private void renderBlocks(int worker, int first, int frames)
+    {
+        Scene s = new Scene(seed, nice, clockSpeed, dumpPrefix, spec);
+        s.resetClock();
+        s.setFrameByFrameClock();
+        s.drawAnimation.set(true);
+        s.profiler = profiler;
+        if (player != null)
+            s.player = player.copy();
+        s.checkpoints = checkpoints;
+
+        SoftwareRenderer renderer =
+            new SoftwareRenderer(width, height, numThreads);
+
+        double[] f = SceneView.frustum(width, height);
+        renderer.frustum(f[0], f[1], f[2], f[3], f[4], f[5]);
+
+        // Sphere/cylinder and bug pose lists are shared by all software
+        // renderers, so only the first worker makes them
+        synchronized (BatchRenderer.class) {
+            if (!listsMade) {
+                Objs.initialize(renderer, nice ? 32 : 16, true);
+                Bug.initialize(renderer);
+                listsMade = true;
+            }
+        }
+
+        byte[] pixels = new byte[width*height*3];
+
+        // Render each of this worker's blocks, getting to its start
+        // first (from a snapshot, if there is one nearer than where the
+        // simulation is)
+        int stride = numWorkers * blockSize;
+        for (int start = first + worker * blockSize; start < first + frames;
+             start += stride) {
+            try {
+                s.seek(start);
+            } catch (IOException e) {
+                throw new RuntimeException("Can't seek to frame " + start, e);
+            }
+
+            int end = Math.min(start + blockSize, first + frames);
+            for (int frame = start; frame < end; frame++) {
+                renderer.beginFrame();
+                s.draw(renderer);
+                renderer.finish();
+
+                renderer.getPixels(pixels);
+                capture.capture(pixels, width, height, frame);
+
+                s.incrementFrameNumber();
+            }
+        }
+
+        renderer.shutdown();
+    }
+
+    // Whether the shared sphere/cylinder lists have been made
+    private static boolean listsMade = false;
+}
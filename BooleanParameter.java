@@ -14,9 +14,6 @@ import javax.swing.event.*;
 class BooleanParameter extends Parameter 
     implements ActionListener
 { 
-    // Value
-    boolean value;
-
     // Default value
     private boolean def;
 
@@ -27,7 +24,27 @@ class BooleanParameter extends Parameter
     {
         super(name, dirtyLevelVal);
 
-        value = def = defVal;
+        def = defVal;
+    }
+
+    // Keep value in store s
+    public void attach(ParameterStore s)
+    {
+        store = s;
+        slot = store.add(def);
+    }
+
+    // Current value (from the latest snapshot; threads drawing a frame
+    // should use their frame's snapshot instead)
+    public boolean get()
+    {
+        return store.snapshot().get(this);
+    }
+
+    // Publish a new value
+    public void set(boolean v)
+    {
+        store.set(slot, v);
     }
 
     // Specify interface component as a listener
@@ -49,12 +66,10 @@ class BooleanParameter extends Parameter
     // Respond to an event from an interface component
     public void respond(Object v) 
     {
-        String vcn = v.getClass().getName();
-
-        if (vcn.equals("javax.swing.JCheckBox")) {
-            value = ((JCheckBox)v).isSelected();
-        } else if (vcn.equals("javax.swing.JCheckBoxMenuItem")) {
-            value = ((JCheckBoxMenuItem)v).isSelected();
+        if (v instanceof JCheckBox) {
+            set(((JCheckBox)v).isSelected());
+        } else if (v instanceof JCheckBoxMenuItem) {
+            set(((JCheckBoxMenuItem)v).isSelected());
         } else {
             return;
         }
@@ -76,7 +91,7 @@ class BooleanParameter extends Parameter
     // Reset value to its default and update interface
     public void reset()
     {
-        value = def;
+        set(def);
 
         updateAll();
     }
@@ -86,19 +101,18 @@ class BooleanParameter extends Parameter
     // Update a single interface component
     public void update(Object v)
     {
-        String vcn = v.getClass().getName();
-        
-        if (vcn.equals("javax.swing.JCheckBox")) {
+        boolean value = get();
+
+        if (v instanceof JCheckBox) {
             ((JCheckBox)v).setSelected(value);
-        } else if (vcn.equals("javax.swing.JCheckBoxMenuItem")) {
+        } else if (v instanceof JCheckBoxMenuItem) {
             ((JCheckBoxMenuItem)v).setSelected(value);
         } else {
             return;
         }
 
         // Mark as dirty at appropriate level
-        if (dirty < dirtyLevel)
-          dirty = dirtyLevel;
+        markDirty();
     }
 
     // Update the entire interface
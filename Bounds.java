@@ -0,0 +1,65 @@
+/* class Bounds
+ * A bounding sphere (center and radius) for an object or a group of
+ * objects in the scene, used to decide whether it can be seen at all
+ *
+ */
+
+import javax.vecmath.*;
+
+class Bounds
+{
+    // Center of sphere
+    Point3d center;
+
+    // Radius of sphere
+    double radius;
+
+    // ---------------------------------------------------------------
+
+    // Constructor for an empty (zero radius) sphere at the origin
+    public Bounds()
+    {
+        center = new Point3d();
+        radius = 0;
+    }
+
+    // Constructor for a sphere with given center and radius
+    public Bounds(Point3d c, double r)
+    {
+        center = new Point3d(c);
+        radius = r;
+    }
+
+    // Set center and radius
+    public void set(double x, double y, double z, double r)
+    {
+        center.set(x, y, z);
+        radius = r;
+    }
+
+    // Grow this sphere so that it also encloses sphere b
+    public void include(Bounds b)
+    {
+        double d = center.distance(b.center);
+
+        // b is already inside
+        if (d + b.radius <= radius)
+            return;
+
+        // b encloses this sphere
+        if (d + radius <= b.radius) {
+            center.set(b.center);
+            radius = b.radius;
+            return;
+        }
+
+        // Smallest sphere enclosing both: move center toward b
+        double r = (d + radius + b.radius) / 2;
+        double s = (r - radius) / d;
+
+        center.set(center.x + (b.center.x - center.x) * s,
+                   center.y + (b.center.y - center.y) * s,
+                   center.z + (b.center.z - center.z) * s);
+        radius = r;
+    }
+}
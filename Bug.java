@@ -5,17 +5,15 @@
  *
  */
 
+import java.io.*;
 import java.util.*;
 
-import javax.media.opengl.GL;
-import javax.media.opengl.GLAutoDrawable;
-import javax.media.opengl.GLDrawable;
 import javax.vecmath.*;
 
 class Bug extends Critter
 {
     // Number of legs, and number of parameters per leg
-    final int legNum = 6, pNum = 2;
+    static final int legNum = 6, pNum = 2;
 
     // Keyframes for bug:
     // - this array specifies one cycle of motion for the bug, which
@@ -69,9 +67,22 @@ class Bug extends Critter
     // Bug size
     double scale;
 
+    // Where in the leg cycle param[] is (T in [0,1]; -1 if param[] was
+    // set some other way, e.g. played back)
+    double phase = 0;
+
     // Tesselation resolution of bug parts 
     static int partDetail;
 
+    // Number of baked poses over the leg cycle (0 draws every bug from
+    // its exact leg angles), and their display lists, by pose and level
+    // of the body's detail (see initialize)
+    static int phases = 16;
+    private static int[][] poseLists = null;
+
+    // Bounding sphere (updated when requested)
+    private Bounds bounds = new Bounds();
+
     // ---------------------------------------------------------------
 
     // constructor
@@ -83,6 +94,7 @@ class Bug extends Critter
 	pos.set(bugPx, bugPy, 0);
 	vel.set(bugVx, bugVy, 0);
 	scale = bugScale;
+	radius = 0.5 * scale;
 
 	param = new double[keyFrames[0].length];
 	keyframe(0);
@@ -100,6 +112,13 @@ class Bug extends Critter
     	double T = t / (scale * stride);
     	T = T % 1;
 
+    	phase = T;
+    	pose(T, param);
+    }
+
+    // Leg angles p[] at T (in [0,1]) of the cycle
+    static void pose(double T, double[] p)
+    {
 	// -- Find two nearest keyframes
 
     	int low = 0, high = 0;
@@ -118,105 +137,188 @@ class Bug extends Critter
     	}
     	
 	for (int j = 0; j < keyFrames[0].length; j++) {
-		param[j] = keyFrames[low][j] + ((keyFrames[high][j] - keyFrames[low][j]) * (T - keyT[low]) / (keyT[high] - keyT[low]));
+		p[j] = keyFrames[low][j] + ((keyFrames[high][j] - keyFrames[low][j]) * (T - keyT[low]) / (keyT[high] - keyT[low]));
 	}
     }
 
     // --------------------------------------------------------------------
 
+    // Leg angles are part of the state too (they aren't recomputed for
+    // bugs too far away to see, at reduced quality)
+    public void writeState(DataOutput out) throws IOException
+    {
+	super.writeState(out);
+	out.writeDouble(phase);
+	for (int j = 0; j < param.length; j++) {
+	    out.writeDouble(param[j]);
+	}
+    }
+    public void readState(DataInput in) throws IOException
+    {
+	super.readState(in);
+	phase = in.readDouble();
+	for (int j = 0; j < param.length; j++) {
+	    param[j] = in.readDouble();
+	}
+    }
+
+    // --------------------------------------------------------------------
+
+    // Bounding sphere of bug: centered on the body, large enough to
+    // hold fully stretched legs (two segments of length 1 each)
+    public Bounds getBounds()
+    {
+	bounds.set(pos.x, pos.y, pos.z + 0.75*scale, 2.1*scale);
+	return bounds;
+    }
+
     // Transformation to place bug in scene
-    public void transform(GL gl)
+    public void transform(Renderer r)
     {
-	gl.glTranslated(pos.x, pos.y, pos.z);
+	r.translate(pos.x, pos.y, pos.z);
 
-	gl.glRotated(Math.atan2(acc.y, acc.x)*(180/Math.PI), 0, 0, 1);
+	r.rotate(Math.atan2(acc.y, acc.x)*(180/Math.PI), 0, 0, 1);
 
-	gl.glScaled(scale, scale, scale);
+	r.scale(scale, scale, scale);
     }
 
     // ---------------------------------------------------------------
-    // Draw bug in scene using current set of parameters
-    public void draw(GL gl)
+
+    // Bake the bug's parts in each of phases poses into display lists,
+    // one per level of detail (with the Objs lists already made). Head
+    // and legs are drawn one and three levels coarser than the body,
+    // about what their sizes would give.
+    public static void initialize(Renderer r)
     {
+	poseLists = null;
+	if (phases <= 0)
+	    return;
+
+	int[][] lists = new int[phases][Objs.levels.length];
+	double[] p = new double[keyFrames[0].length];
+	int first = r.genLists(phases * Objs.levels.length);
+
+	for (int i = 0; i < phases; i++) {
+	    // (middle of the part of the cycle the pose stands for)
+	    pose((i + 0.5) / phases, p);
+
+	    for (int l = 0; l < Objs.levels.length; l++) {
+		lists[i][l] = first + i * Objs.levels.length + l;
+
+		r.newList(lists[i][l]);
+		drawParts(r, p, Objs.levels[l],
+			  Objs.levels[Math.max(0, l - 1)],
+			  Objs.levels[Math.max(0, l - 3)]);
+		r.endList();
+	    }
+	}
+
+	poseLists = lists;
+    }
+
+    // Draw bug in scene using current set of parameters (or the baked
+    // pose nearest to them)
+    public void draw(Renderer r, Frustum frustum)
+    {
+	// On-screen pixels per unit of bug size (for part detail)
+	double px = Double.POSITIVE_INFINITY;
+	if (frustum != null)
+	    px = frustum.detailScale(getBounds().center) * scale;
+
 	// Bug transform (default bug faces +x direction)
-	gl.glPushMatrix();
-	transform(gl);
+	r.pushMatrix();
+	transform(r);
+
+	int[][] lists = poseLists;
+	if (lists != null && phase >= 0) {
+	    int i = Math.min(lists.length - 1, (int)(phase * lists.length));
+	    r.callList(lists[i][Objs.level(Objs.detail(1.3 * px))]);
+	} else {
+	    drawParts(r, param, Objs.detail(1.3 * px), Objs.detail(0.5 * px),
+		      Objs.detail(0.15 * px));
+	}
 
+	// Bug
+	r.popMatrix();
+    }
+
+    // Draw body, head and legs (leg angles p[]) with the given numbers
+    // of segments
+    static void drawParts(Renderer r, double[] p,
+			  int bodyDetail, int headDetail, int legDetail)
+    {
 	// Body
-	gl.glPushMatrix();
+	r.pushMatrix();
 	{
-	    gl.glTranslated(0, 0, 0.75);
-            gl.glColor3d(0.5, 0.7, 0.75);
-	    gl.glPushMatrix();
+	    r.translate(0, 0, 0.75);
+            r.color(0.5, 0.7, 0.75);
+	    r.pushMatrix();
 	    {
-		gl.glScaled(1.3, 1.1, 1);
-                Objs.sphere(gl);
+		r.scale(1.3, 1.1, 1);
+                Objs.sphere(r, bodyDetail);
 	    }
-	    gl.glPopMatrix();
+	    r.popMatrix();
 	    
 	    // Head (relative to body)
-	    gl.glPushMatrix();
+	    r.pushMatrix();
 	    {
-		gl.glTranslated(0.7, 0.0, 0.0);
-		gl.glScaled(0.5, 0.5, 0.5);
-                gl.glColor3d(0.65, 0.55, 0.75);
-                Objs.sphere(gl);
+		r.translate(0.7, 0.0, 0.0);
+		r.scale(0.5, 0.5, 0.5);
+                r.color(0.65, 0.55, 0.75);
+                Objs.sphere(r, headDetail);
 	    }
-	    gl.glPopMatrix();
+	    r.popMatrix();
 
 	    // Legs (relative to body)
 
 	    double legThick = 0.15;
-            gl.glColor3d(0.5, 0.4, 0.3);
+            r.color(0.5, 0.4, 0.3);
 
 	    for (int i = 0; i < legNum/2; i++) {
 		// Left legs
-		gl.glPushMatrix();
+		r.pushMatrix();
 		{
-		    gl.glRotated(param[2*i*pNum],      0, 0, 1);
-		    gl.glRotated(90-param[2*i*pNum+1], 1, 0, 0);
+		    r.rotate(p[2*i*pNum],      0, 0, 1);
+		    r.rotate(90-p[2*i*pNum+1], 1, 0, 0);
 		    
-		    gl.glPushMatrix();
+		    r.pushMatrix();
 		    {
-			gl.glScaled(legThick, legThick, 1.0);
-                        Objs.cylinder(gl);
+			r.scale(legThick, legThick, 1.0);
+                        Objs.cylinder(r, legDetail);
 		    }
-		    gl.glPopMatrix();
+		    r.popMatrix();
 
-		    gl.glTranslated(0, 0, 1);
-		    gl.glRotated(90, 1, 0, 0);
-		    gl.glScaled(legThick, legThick, 1.0);
-                    Objs.cylinder(gl);
+		    r.translate(0, 0, 1);
+		    r.rotate(90, 1, 0, 0);
+		    r.scale(legThick, legThick, 1.0);
+                    Objs.cylinder(r, legDetail);
 		}
-		gl.glPopMatrix();
+		r.popMatrix();
 
 		// Right legs	    
-		gl.glPushMatrix();
+		r.pushMatrix();
 		{
-		    gl.glRotated(-param[(2*i+1)*pNum],      0, 0, 1);
-		    gl.glRotated(-90+param[(2*i+1)*pNum+1], 1, 0, 0);
+		    r.rotate(-p[(2*i+1)*pNum],      0, 0, 1);
+		    r.rotate(-90+p[(2*i+1)*pNum+1], 1, 0, 0);
 		    
-		    gl.glPushMatrix();
+		    r.pushMatrix();
 		    {
-			gl.glScaled(legThick, legThick, 1.0);
-                        Objs.cylinder(gl);
+			r.scale(legThick, legThick, 1.0);
+                        Objs.cylinder(r, legDetail);
 		    }
-		    gl.glPopMatrix();
+		    r.popMatrix();
 		    
-		    gl.glTranslated(0, 0, 1.0);
-		    gl.glRotated(-90, 1, 0, 0);
-		    gl.glScaled(legThick, legThick, 1.0);
-                    Objs.cylinder(gl);
+		    r.translate(0, 0, 1.0);
+		    r.rotate(-90, 1, 0, 0);
+		    r.scale(legThick, legThick, 1.0);
+                    Objs.cylinder(r, legDetail);
 		}
 		
-		gl.glPopMatrix();
+		r.popMatrix();
 	    }
 	}
 
 	// Body
-	gl.glPopMatrix();
-
-	// Bug
-	gl.glPopMatrix();
+	r.popMatrix();
     }
 }
@@ -0,0 +1,112 @@
+/* class Checkpoints
+ * Snapshots of a scene's simulation (Scene.saveState) taken every
+ * interval frames, so that any frame can be reached by restoring the
+ * snapshot before it and simulating at most interval frames (see
+ * Scene.seek). Can be written to a file and read back, so a later run
+ * (e.g. a dump resumed with -start) doesn't have to simulate from the
+ * beginning. Shared by the workers of a BatchRenderer. Snapshots read
+ * from a run of another scene (seed, speed, quality or generation
+ * parameters) are rejected by Scene.restoreState.
+ *
+ * File layout (big-endian): int magic ('CHKP'), int interval, int count,
+ * then per snapshot int frame, int length, bytes.
+ *
+ */
+
+import java.io.*;
+import java.util.*;
+
+class Checkpoints
+{
+    static final int MAGIC = 0x43484B50;
+
+    // Frames between snapshots
+    int interval;
+
+    // Snapshots by frame number
+    private TreeMap<Integer, byte[]> taken = new TreeMap<Integer, byte[]>();
+
+    // ---------------------------------------------------------------
+
+    public Checkpoints(int intervalVal)
+    {
+        interval = Math.max(1, intervalVal);
+    }
+
+    // Take a snapshot of s if frame is due for one (and has none yet);
+    // s must be at the start of that frame
+    public void offer(int frame, Scene s)
+    {
+        if (frame % interval != 0)
+            return;
+
+        synchronized (this) {
+            if (taken.containsKey(frame))
+                return;
+        }
+
+        byte[] state = s.saveState();
+
+        synchronized (this) {
+            taken.put(frame, state);
+        }
+    }
+
+    // Latest frame at or before frame with a snapshot (-1 if none)
+    public synchronized int before(int frame)
+    {
+        Integer f = taken.floorKey(frame);
+        return (f == null) ? -1 : f.intValue();
+    }
+
+    // Snapshot taken at frame
+    public synchronized byte[] get(int frame)
+    {
+        return taken.get(frame);
+    }
+
+    // ---------------------------------------------------------------
+
+    public synchronized void write(String fileName) throws IOException
+    {
+        DataOutputStream out = new DataOutputStream(
+            new BufferedOutputStream(new FileOutputStream(fileName)));
+
+        out.writeInt(MAGIC);
+        out.writeInt(interval);
+        out.writeInt(taken.size());
+        for (Map.Entry<Integer, byte[]> e : taken.entrySet()) {
+            out.writeInt(e.getKey());
+            out.writeInt(e.getValue().length);
+            out.write(e.getValue());
+        }
+
+        out.close();
+    }
+
+    public static Checkpoints read(String fileName) throws IOException
+    {
+        DataInputStream in = new DataInputStream(
+            new BufferedInputStream(new FileInputStream(fileName)));
+
+        try {
+            if (in.readInt() != MAGIC)
+                throw new IOException("Not a checkpoint file: " + fileName);
+
+            Checkpoints c = new Checkpoints(in.readInt());
+            int count = in.readInt();
+
+            for (int i = 0; i < count; i++) {
+                int frame = in.readInt();
+                byte[] state = new byte[in.readInt()];
+
+                in.readFully(state);
+                c.taken.put(frame, state);
+            }
+
+            return c;
+        } finally {
+            in.close();
+        }
+    }
+}
@@ -6,9 +6,8 @@
  *
  */
 
-import javax.media.opengl.GL;
-import javax.media.opengl.GLAutoDrawable;
 import javax.vecmath.*;
+import java.io.*;
 import java.util.*;
 
 abstract class Critter
@@ -20,6 +19,9 @@ abstract class Critter
     // Total distance traveled (used for keyframing)
     double dist;
 
+    // Radius of the critter's footprint (for collisions with obstacles)
+    double radius = 0;
+
     // Random number generator
     Random rgen;
 
@@ -38,7 +40,12 @@ abstract class Critter
     }
 
     // Method to draw critter
-    abstract void draw(GL gl);
+    // (frustum gives the on-screen size, for the level of detail; null
+    // draws at full detail)
+    abstract void draw(Renderer r, Frustum frustum);
+
+    // Bounding sphere enclosing the critter at its current position
+    abstract Bounds getBounds();
 
     // Method to do keyframe animation
     abstract void keyframe(double t);
@@ -66,12 +73,139 @@ abstract class Critter
     	dist += Math.sqrt(Math.pow(vel.x * dt, 2) + Math.pow(vel.y * dt, 2));
     }
 
+    // Same, but never moving into the footprint of an obstacle: the
+    // move is swept against every footprint and stopped at the first
+    // time of impact, then what is left of it (and of the velocity)
+    // slides along the footprint. So the step size doesn't matter for
+    // collisions; fast critters can't tunnel through obstacles.
+    public void integrate(double dt, Vector<Obstacle> obstacles)
+    {
+	vel.set(vel.x + (acc.x * dt), vel.y + (acc.y * dt), 0.0);
+
+	// Move still to be made
+	double mx = vel.x * dt, my = vel.y * dt;
+
+	// Leave any footprint the critter is already in (e.g. an obstacle
+	// was made where it stood)
+	for (Obstacle o : obstacles) {
+	    Point3d c = o.getLocation();
+	    double r = o.getRadius() + radius;
+	    double dx = pos.x - c.x, dy = pos.y - c.y;
+	    double d = Math.sqrt(dx*dx + dy*dy);
+
+	    if (d < r) {
+		if (d == 0) {
+		    dx = 1;
+		    d = 1;
+		}
+		pos.set(c.x + dx * r / d, c.y + dy * r / d, 0.0);
+	    }
+	}
+
+	// Move until the next impact, slide, and so on (a few times at
+	// most; whatever is left after that is dropped)
+	for (int pass = 0; pass < 4 && (mx != 0 || my != 0); pass++) {
+	    double first = 1;
+	    Obstacle hit = null;
+
+	    for (Obstacle o : obstacles) {
+		Point3d c = o.getLocation();
+		double t = timeOfImpact(pos.x - c.x, pos.y - c.y, mx, my,
+					o.getRadius() + radius);
+
+		if (t >= 0 && t < first) {
+		    first = t;
+		    hit = o;
+		}
+	    }
+
+	    pos.set(pos.x + mx * first, pos.y + my * first, 0.0);
+	    dist += first * Math.sqrt(mx*mx + my*my);
+
+	    if (hit == null)
+		break;
+
+	    // Take away the parts of the rest of the move and of the
+	    // velocity that go into the footprint
+	    Point3d c = hit.getLocation();
+	    double nx = pos.x - c.x, ny = pos.y - c.y;
+	    double n = Math.sqrt(nx*nx + ny*ny);
+	    nx /= n;
+	    ny /= n;
+
+	    mx *= 1 - first;
+	    my *= 1 - first;
+
+	    double into = mx * nx + my * ny;
+	    if (into < 0) {
+		mx -= into * nx;
+		my -= into * ny;
+	    }
+	    into = vel.x * nx + vel.y * ny;
+	    if (into < 0) {
+		vel.set(vel.x - into * nx, vel.y - into * ny, 0.0);
+	    }
+	}
+    }
+
+    // Fraction (in [0,1]) of the move (mx,my) from offset (fx,fy) from
+    // a circle's center at which the distance to it falls to r; -1 if
+    // it doesn't during the move. Stops a little short of the circle, so
+    // rounding doesn't put the critter inside it.
+    private static double timeOfImpact(double fx, double fy,
+				       double mx, double my, double r)
+    {
+	double a = mx*mx + my*my;
+	double b = fx*mx + fy*my;
+	double c = fx*fx + fy*fy - r*r;
+
+	// Moving away (or not at all)
+	if (b >= 0 || a == 0)
+	    return -1;
+
+	// Touching already, and moving in
+	if (c <= 0)
+	    return 0;
+
+	double disc = b*b - a*c;
+	if (disc < 0)
+	    return -1;
+
+	double t = (-b - Math.sqrt(disc)) / a;
+	if (t > 1)
+	    return -1;
+
+	return Math.max(0, t - 1e-9 / Math.sqrt(a));
+    }
+
     // Accessor for total distance traveled by bug
     public double distTraveled()
     {
 	return dist;
     }
 
+    // Save/restore everything the simulation changes (for snapshots)
+    public void writeState(DataOutput out) throws IOException
+    {
+	out.writeDouble(pos.x);
+	out.writeDouble(pos.y);
+	out.writeDouble(pos.z);
+	out.writeDouble(vel.x);
+	out.writeDouble(vel.y);
+	out.writeDouble(vel.z);
+	out.writeDouble(acc.x);
+	out.writeDouble(acc.y);
+	out.writeDouble(acc.z);
+	out.writeDouble(dist);
+    }
+    public void readState(DataInput in) throws IOException
+    {
+	pos.set(in.readDouble(), in.readDouble(), in.readDouble());
+	vel.set(in.readDouble(), in.readDouble(), in.readDouble());
+	acc.set(in.readDouble(), in.readDouble(), in.readDouble());
+	dist = in.readDouble();
+    }
+
     // ---------------------------------------------------------------
 
     // Reset acceleration to zero
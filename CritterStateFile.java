@@ -0,0 +1,193 @@
+/* class CritterStateFile
+ * Publishes the state of every critter (position, velocity, heading and
+ * bug leg parameters) each frame into a memory-mapped file, so that
+ * other programs (a recorder, a dashboard, in this or another process)
+ * can read it in place, without copying or serialization.
+ *
+ * The file is a 64-byte header followed by a fixed-stride array of
+ * records, all little-endian:
+ *
+ *   header  0  int     magic ('CRIT')
+ *           4  int     layout version (1)
+ *           8  long    sequence number
+ *          16  int     capacity (number of records in the file)
+ *          20  int     count (number of records in use)
+ *          24  int     stride (bytes per record)
+ *          28  int     number of leg parameters per record
+ *          32  int     frame number
+ *          40  double  simulation time (seconds)
+ *   record  0  double  pos x, y, z
+ *          24  double  vel x, y, z
+ *          48  double  heading (radians, as the bug is drawn)
+ *          56  double  leg parameters (zero for critters that aren't bugs)
+ *
+ * The sequence number is odd while a frame is being written. A reader
+ * reads the sequence number, then the data, then the sequence number
+ * again; if it was odd or has changed, it reads again (read() below
+ * does this). Critters beyond the capacity are not published.
+ *
+ */
+
+import java.io.*;
+import java.lang.invoke.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.util.*;
+
+class CritterStateFile
+{
+    static final int MAGIC = 0x43524954;
+    static final int LAYOUT = 1;
+    static final int HEADER = 64;
+
+    // Offsets in header
+    static final int SEQUENCE = 8, CAPACITY = 16, COUNT = 20, STRIDE = 24,
+                     PARAMS = 28, FRAME = 32, TIME = 40;
+
+    // Leg parameters per record
+    static final int numParams = Bug.keyFrames[0].length;
+
+    // Bytes per record
+    static final int stride = 8 * (7 + numParams);
+
+    // Access to the sequence number with memory ordering
+    private static final VarHandle longs =
+        MethodHandles.byteBufferViewVarHandle(long[].class,
+                                              ByteOrder.LITTLE_ENDIAN);
+
+    // Mapped file, and its number of records
+    private MappedByteBuffer map;
+    private int capacity;
+
+    // Sequence number of the last frame published
+    private long sequence = 0;
+
+    // ---------------------------------------------------------------
+
+    // Make (or overwrite) file fileName with room for capacity critters
+    public CritterStateFile(String fileName, int capacityVal)
+        throws IOException
+    {
+        capacity = capacityVal;
+
+        RandomAccessFile file = new RandomAccessFile(fileName, "rw");
+        try {
+            map = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0,
+                                        HEADER + (long)capacity * stride);
+        } finally {
+            // (the mapping stays valid once the file is closed)
+            file.close();
+        }
+        map.order(ByteOrder.LITTLE_ENDIAN);
+
+        map.putInt(0, MAGIC);
+        map.putInt(4, LAYOUT);
+        map.putInt(CAPACITY, capacity);
+        map.putInt(COUNT, 0);
+        map.putInt(STRIDE, stride);
+        map.putInt(PARAMS, numParams);
+        longs.setRelease(map, SEQUENCE, sequence);
+    }
+
+    // Publish the state of critters at the given frame/time
+    public void publish(Vector<Critter> critters, int frame, double time)
+    {
+        int count = Math.min(critters.size(), capacity);
+
+        // Odd while writing
+        longs.setOpaque(map, SEQUENCE, ++sequence);
+        VarHandle.storeStoreFence();
+
+        map.putInt(COUNT, count);
+        map.putInt(FRAME, frame);
+        map.putDouble(TIME, time);
+
+        for (int i = 0; i < count; i++) {
+            Critter c = critters.elementAt(i);
+            int at = HEADER + i * stride;
+
+            map.putDouble(at,      c.pos.x);
+            map.putDouble(at + 8,  c.pos.y);
+            map.putDouble(at + 16, c.pos.z);
+            map.putDouble(at + 24, c.vel.x);
+            map.putDouble(at + 32, c.vel.y);
+            map.putDouble(at + 40, c.vel.z);
+            map.putDouble(at + 48, Math.atan2(c.acc.y, c.acc.x));
+
+            double[] param = (c instanceof Bug) ? ((Bug)c).param : null;
+            for (int j = 0; j < numParams; j++) {
+                map.putDouble(at + 56 + 8*j, (param != null) ? param[j] : 0);
+            }
+        }
+
+        // Even again once all is written
+        longs.setRelease(map, SEQUENCE, ++sequence);
+    }
+
+    // ---------------------------------------------------------------
+
+    // Read a consistent frame from a file mapped by a reader: the
+    // records go into state (stride/8 doubles per record, which is
+    // made larger if needed and returned); count/frame/time go into
+    // info[0..2]
+    static double[] read(ByteBuffer map, double[] state, double[] info)
+    {
+        map.order(ByteOrder.LITTLE_ENDIAN);
+        int perRecord = map.getInt(STRIDE) / 8;
+
+        while (true) {
+            long before = (long)longs.getAcquire(map, SEQUENCE);
+            if ((before & 1) != 0) {
+                Thread.onSpinWait();
+                continue;
+            }
+
+            int count = map.getInt(COUNT);
+            if (state == null || state.length < count * perRecord)
+                state = new double[count * perRecord];
+
+            info[0] = count;
+            info[1] = map.getInt(FRAME);
+            info[2] = map.getDouble(TIME);
+            for (int i = 0; i < count * perRecord; i++) {
+                state[i] = map.getDouble(HEADER + 8*i);
+            }
+
+            VarHandle.loadLoadFence();
+            if ((long)longs.getOpaque(map, SEQUENCE) == before)
+                return state;
+        }
+    }
+
+    // Example reader: print the main bug's position every 0.1 seconds.
+    // Run with
+    //
+    //   java CritterStateFile <file>
+    //
+    public static void main(String[] args) throws Exception
+    {
+        RandomAccessFile file = new RandomAccessFile(args[0], "r");
+        MappedByteBuffer map =
+            file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0,
+                                  file.length());
+        file.close();
+
+        if (map.order(ByteOrder.LITTLE_ENDIAN).getInt(0) != MAGIC) {
+            System.out.println("Not a critter state file: " + args[0]);
+            System.exit(1);
+        }
+
+        double[] state = null, info = new double[3];
+        while (true) {
+            state = read(map, state, info);
+
+            String line = "frame " + (int)info[1] + "  t " + info[2] +
+                          "  critters " + (int)info[0];
+            if (info[0] > 0)
+                line += "  main bug at " + state[0] + ", " + state[1];
+            System.out.println(line);
+
+            Thread.sleep(100);
+        }
+    }
+}
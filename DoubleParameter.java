@@ -14,9 +14,6 @@ import javax.swing.event.*;
 class DoubleParameter extends Parameter 
     implements ActionListener, ChangeListener
 { 
-    // Value
-    double value;
-
     // Default value
     private double def;
     // Value range
@@ -45,7 +42,7 @@ class DoubleParameter extends Parameter
     {
         super(name, dirtyLevelVal);
 
-        value = def = defVal;
+        def = defVal;
         min = minVal;
         max = maxVal;
 
@@ -58,6 +55,26 @@ class DoubleParameter extends Parameter
         numFormat = new DecimalFormat(formatSpec);
     }
 
+    // Keep value in store s
+    public void attach(ParameterStore s)
+    {
+        store = s;
+        slot = store.add(def);
+    }
+
+    // Current value (from the latest snapshot; threads drawing a frame
+    // should use their frame's snapshot instead)
+    public double get()
+    {
+        return store.snapshot().get(this);
+    }
+
+    // Publish a new value
+    public void set(double v)
+    {
+        store.set(slot, v);
+    }
+
     // Specify interface component as a listener
     public void register(JTextField v)
     {
@@ -77,15 +94,15 @@ class DoubleParameter extends Parameter
     // Respond to an event from an interface component
     public void respond(Object v) 
     {
-        String vcn = v.getClass().getName();
+        double value = get();
 
-        if (vcn.equals("javax.swing.JTextField")) {
+        if (v instanceof JTextField) {
             try {
                 value = Double.parseDouble(((JTextField)v).getText());
             } catch (NumberFormatException e) {
                 // Leave value unchanged
             }
-        } else if (vcn.equals("javax.swing.JSlider")) {
+        } else if (v instanceof JSlider) {
             int ivalue = ((JSlider)v).getValue();
 
             value = min + ivalue * (max - min) / sliderRange;
@@ -99,6 +116,7 @@ class DoubleParameter extends Parameter
         if (value > max)
           value = max;
 
+        set(value);
         updateAll();
     }
 
@@ -125,7 +143,7 @@ class DoubleParameter extends Parameter
     // Reset value to its default and update interface
     public void reset()
     {
-        value = def;
+        set(def);
 
         updateAll();
     }
@@ -135,11 +153,11 @@ class DoubleParameter extends Parameter
     // Update a single interface component
     public void update(Object v)
     {
-        String vcn = v.getClass().getName();
-        
-        if (vcn.equals("javax.swing.JTextField")) {
+        double value = get();
+
+        if (v instanceof JTextField) {
             ((JTextField)v).setText(numFormat.format(value));
-        } else if (vcn.equals("javax.swing.JSlider")) {
+        } else if (v instanceof JSlider) {
             int ivalue = (int)Math.round((value - min) * sliderRange /
                                          (max - min));
             
@@ -151,8 +169,7 @@ class DoubleParameter extends Parameter
         }
 
         // Mark as dirty at appropriate level
-        if (dirty < dirtyLevel)
-          dirty = dirtyLevel;
+        markDirty();
     }
 
     // Update the entire interface
@@ -0,0 +1,245 @@
+/* class FlowField
+ * Directions leading every point of the ground to the goal point around
+ * obstacles, shared by all critters. The ground is split into a grid of
+ * cells; cells near an obstacle footprint (or off the ground disc) cost
+ * much more to cross. Costs to the goal come from Dijkstra's algorithm
+ * over the 8 neighbours of each cell, and each cell points at its
+ * cheapest neighbour. The field is only computed again when the goal or
+ * the obstacles change; looking up a direction takes constant time, so
+ * the cost doesn't depend on the number of critters.
+ *
+ */
+
+import java.util.*;
+
+import javax.vecmath.*;
+
+class FlowField
+{
+    // Ground covered (square of side 2*extent around the center), and
+    // size of a cell
+    static final double extent = 15;
+    static final double cellSize = 0.25;
+    static final int size = (int)Math.round(2 * extent / cellSize);
+
+    // Room kept around obstacle footprints (about a bug's footprint),
+    // and how much more a cell there costs to cross
+    static final double clearance = 0.3;
+    static final float blockedCost = 25;
+
+    // Neighbours of a cell (4 straight, then 4 diagonal)
+    private static final int[] DX = { 1, -1, 0, 0, 1, 1, -1, -1 };
+    private static final int[] DY = { 0, 0, 1, -1, 1, -1, 1, -1 };
+    private static final float[] STEP = { 1, 1, 1, 1,
+                                          (float)Math.sqrt(2),
+                                          (float)Math.sqrt(2),
+                                          (float)Math.sqrt(2),
+                                          (float)Math.sqrt(2) };
+
+    // Per cell: whether it is near an obstacle, cost to the goal, and
+    // direction to move in (0,0 at the goal)
+    private boolean[] blocked = new boolean[size * size];
+    private float[] cost = new float[size * size];
+    private float[] dirX = new float[size * size];
+    private float[] dirY = new float[size * size];
+
+    // Dijkstra's queue: a binary min-heap of entries (see costs), grown
+    // as needed
+    private long[] heap = new long[size * size];
+    private int heapSize = 0;
+
+    // Goal and obstacles the field was computed for
+    private double goalX = Double.NaN, goalY = Double.NaN;
+    private Vector<Obstacle> madeFor = null;
+
+    // ---------------------------------------------------------------
+
+    // Make the field lead to (gx, gy) around obstacles (unless it
+    // already does)
+    public void update(double gx, double gy, Vector<Obstacle> obstacles)
+    {
+        if (gx == goalX && gy == goalY && obstacles == madeFor)
+            return;
+
+        if (obstacles != madeFor)
+            block(obstacles);
+
+        goalX = gx;
+        goalY = gy;
+        madeFor = obstacles;
+
+        costs(cell(gx, gy));
+        directions();
+    }
+
+    // Direction to move in at (px, py), as a unit vector in dir; false
+    // if there is none (in the goal's cell)
+    public boolean direction(double px, double py, Vector3d dir)
+    {
+        int c = cell(px, py);
+
+        if (dirX[c] == 0 && dirY[c] == 0)
+            return false;
+
+        dir.set(dirX[c], dirY[c], 0);
+        return true;
+    }
+
+    // ---------------------------------------------------------------
+
+    // Cell holding point (px, py) (points off the grid go to the
+    // nearest cell on its edge)
+    private int cell(double px, double py)
+    {
+        int ix = (int)Math.floor((px + extent) / cellSize);
+        int iy = (int)Math.floor((py + extent) / cellSize);
+
+        ix = Math.max(0, Math.min(size - 1, ix));
+        iy = Math.max(0, Math.min(size - 1, iy));
+        return iy * size + ix;
+    }
+
+    // Mark cells off the ground disc, or within clearance of a footprint
+    private void block(Vector<Obstacle> obstacles)
+    {
+        for (int iy = 0; iy < size; iy++) {
+            for (int ix = 0; ix < size; ix++) {
+                double cx = (ix + 0.5) * cellSize - extent;
+                double cy = (iy + 0.5) * cellSize - extent;
+
+                blocked[iy * size + ix] = (cx*cx + cy*cy > extent*extent);
+            }
+        }
+
+        for (Obstacle o : obstacles) {
+            Point3d p = o.getLocation();
+            double r = o.getRadius() + clearance;
+
+            int x0 = Math.max(0, (int)Math.floor((p.x - r + extent) / cellSize));
+            int x1 = Math.min(size - 1, (int)Math.floor((p.x + r + extent) / cellSize));
+            int y0 = Math.max(0, (int)Math.floor((p.y - r + extent) / cellSize));
+            int y1 = Math.min(size - 1, (int)Math.floor((p.y + r + extent) / cellSize));
+
+            for (int iy = y0; iy <= y1; iy++) {
+                for (int ix = x0; ix <= x1; ix++) {
+                    double dx = (ix + 0.5) * cellSize - extent - p.x;
+                    double dy = (iy + 0.5) * cellSize - extent - p.y;
+
+                    if (dx*dx + dy*dy < r*r)
+                        blocked[iy * size + ix] = true;
+                }
+            }
+        }
+    }
+
+    // Cost of every cell to the goal cell (Dijkstra). Queue entries are
+    // the cost's float bits above the cell number, so they sort by cost
+    // (costs are never negative).
+    private void costs(int goal)
+    {
+        Arrays.fill(cost, Float.POSITIVE_INFINITY);
+        cost[goal] = 0;
+        heapSize = 0;
+        push(goal);
+
+        while (heapSize > 0) {
+            long entry = pop();
+            int c = (int)entry;
+            float d = Float.intBitsToFloat((int)(entry >>> 32));
+
+            // (already reached more cheaply)
+            if (d > cost[c])
+                continue;
+
+            int cx = c % size, cy = c / size;
+            for (int n = 0; n < 8; n++) {
+                int nx = cx + DX[n], ny = cy + DY[n];
+                if (nx < 0 || ny < 0 || nx >= size || ny >= size)
+                    continue;
+
+                int m = ny * size + nx;
+                float nd = d + STEP[n] * (blocked[m] ? blockedCost : 1);
+
+                if (nd < cost[m]) {
+                    cost[m] = nd;
+                    push(((long)Float.floatToIntBits(nd) << 32) | m);
+                }
+            }
+        }
+    }
+
+    // Add entry e to the heap
+    private void push(long e)
+    {
+        if (heapSize == heap.length)
+            heap = Arrays.copyOf(heap, 2 * heap.length);
+
+        // Move it up past larger parents
+        int i = heapSize++;
+        while (i > 0) {
+            int parent = (i - 1) / 2;
+            if (heap[parent] <= e)
+                break;
+            heap[i] = heap[parent];
+            i = parent;
+        }
+        heap[i] = e;
+    }
+
+    // Take the smallest entry off the heap
+    private long pop()
+    {
+        long top = heap[0];
+        long e = heap[--heapSize];
+
+        // Move the last entry down from the top past smaller children
+        int i = 0;
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= heapSize)
+                break;
+            if (child + 1 < heapSize && heap[child + 1] < heap[child])
+                child++;
+            if (e <= heap[child])
+                break;
+            heap[i] = heap[child];
+            i = child;
+        }
+        if (heapSize > 0)
+            heap[i] = e;
+
+        return top;
+    }
+
+    // Point each cell at its cheapest neighbour
+    private void directions()
+    {
+        for (int cy = 0; cy < size; cy++) {
+            for (int cx = 0; cx < size; cx++) {
+                int c = cy * size + cx;
+                float best = cost[c];
+                int bestN = -1;
+
+                for (int n = 0; n < 8; n++) {
+                    int nx = cx + DX[n], ny = cy + DY[n];
+                    if (nx < 0 || ny < 0 || nx >= size || ny >= size)
+                        continue;
+
+                    if (cost[ny * size + nx] < best) {
+                        best = cost[ny * size + nx];
+                        bestN = n;
+                    }
+                }
+
+                if (bestN < 0) {
+                    dirX[c] = 0;
+                    dirY[c] = 0;
+                } else {
+                    float len = (bestN < 4) ? 1 : (float)Math.sqrt(2);
+                    dirX[c] = DX[bestN] / len;
+                    dirY[c] = DY[bestN] / len;
+                }
+            }
+        }
+    }
+}
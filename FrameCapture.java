@@ -0,0 +1,406 @@
+/* class FrameCapture
+ * Reads back rendered frames and writes them out to a FrameSink without
+ * stalling the render thread: pixels are read into pixel buffer objects
+ * and only mapped one frame later (when the transfer has finished), the
+ * pixel arrays come from a fixed pool, frames are encoded by a pool of
+ * background threads and written in order by one more thread. When too
+ * many frames are in flight the render thread waits (backpressure).
+ *
+ * Frames drawn without GL may be submitted from several threads and out
+ * of order (see BatchRenderer); they are written in frame number order,
+ * and a thread only gets ahead of the writer by maxInFlight frames.
+ *
+ * The output format follows the dump prefix: "name.avi" gives a single
+ * Motion-JPEG file, "name.y4m" a single raw YUV stream, and anything else
+ * a sequence of PPM files.
+ *
+ */
+
+import java.io.*;
+import java.nio.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+import javax.media.opengl.GL;
+
+class FrameCapture
+{
+    // Number of pixel buffer objects to cycle through (frames in flight
+    // on the GPU side)
+    static final int numPBO = 2;
+
+    // Number of encoder threads, number of pooled pixel arrays, and
+    // number of frames that may be queued for encoding or writing
+    static final int numEncoders =
+        Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+    static final int poolSize = numEncoders + 2;
+    static final int maxInFlight = 2 * poolSize;
+
+    // Where frames go
+    private FrameSink sink;
+
+    // Size of frames in pool/buffers
+    private int width = 0, height = 0;
+
+    // Color buffer to read from (front for single-buffered drawables)
+    int readBuffer = GL.GL_BACK;
+
+    // Where readback, encoding and writing times go (usually the
+    // scene's profiler)
+    Profiler profiler = new Profiler();
+
+    // Cached GL state of the context read from (usually the renderer's)
+    GLState glState = new GLState();
+
+    // Pixel buffer objects (if supported), frame number held by each,
+    // and which one is written next
+    private boolean usePBO;
+    private int[] pbo = new int[numPBO];
+    private int[] pboFrame = new int[numPBO];
+    private int nextPBO = 0;
+
+    // Pool of free pixel arrays
+    private ArrayBlockingQueue<byte[]> pool;
+
+    // Background encoders, and writer (one thread, so frames are
+    // written one at a time)
+    private ExecutorService encoders, writer;
+
+    // Position of the next frame to write in output order, frames that
+    // are queued but wait for earlier ones, and
+    // count of frames read back from GL (these are written in the order
+    // they were drawn)
+    private int nextOrder = 0;
+    private TreeMap<Integer, Encoded> waiting =
+        new TreeMap<Integer, Encoded>();
+    private int glOrder = 0;
+
+    // A frame being encoded or waiting to be written: its number, its
+    // data (when encoded), its size, and when it was submitted
+    private static class Encoded
+    {
+        final int frame;
+        final Future<byte[]> data;
+        final int width, height;
+        final long submitted;
+
+        Encoded(int frameVal, Future<byte[]> dataVal, int widthVal,
+                int heightVal, long submittedVal)
+        {
+            frame = frameVal;
+            data = dataVal;
+            width = widthVal;
+            height = heightVal;
+            submitted = submittedVal;
+        }
+    }
+
+    // ---------------------------------------------------------------
+
+    // Constructor
+    public FrameCapture(String prefix)
+    {
+        try {
+            sink = makeSink(prefix);
+        } catch (IOException e) {
+            System.out.println(e);
+            System.exit(-1);
+        }
+
+        pool = new ArrayBlockingQueue<byte[]>(poolSize);
+        encoders = Executors.newFixedThreadPool(numEncoders);
+        writer = Executors.newSingleThreadExecutor();
+    }
+
+    // Frame number of the first frame submitted without GL (frames are
+    // written from here on, in order)
+    public void setFirstFrame(int frame)
+    {
+        synchronized (waiting) {
+            nextOrder = frame;
+        }
+    }
+
+    // Choose output format from dump prefix
+    public static FrameSink makeSink(String prefix) throws IOException
+    {
+        String lower = prefix.toLowerCase();
+
+        if (lower.endsWith(".avi"))
+            return new MJPEGSink(prefix);
+        if (lower.endsWith(".y4m"))
+            return new Y4MSink(prefix);
+
+        return new PNMSink(prefix);
+    }
+
+    // Read back the current frame (of given size) from the back buffer;
+    // it gets written out as frame number frame
+    public void capture(GL gl, int w, int h, int frame)
+    {
+        long start = System.nanoTime();
+
+        if (w != width || h != height) {
+            resize(gl, w, h);
+        }
+
+        gl.glReadBuffer(readBuffer);
+        gl.glPixelStorei(GL.GL_PACK_ALIGNMENT, 1);
+
+        if (!usePBO) {
+            // Synchronous readback into a pooled array
+            waitForTurn(glOrder);
+            byte[] pixels = takeBuffer();
+
+            gl.glReadPixels(0, 0, width, height,
+                            GL.GL_RGB, GL.GL_UNSIGNED_BYTE,
+                            ByteBuffer.wrap(pixels));
+            profiler.end(Profiler.READBACK, start);
+            submit(pixels, frame, glOrder++);
+            return;
+        }
+
+        // Start asynchronous transfer into the next PBO
+        int slot = nextPBO;
+
+        glState.bindBuffer(gl, GL.GL_PIXEL_PACK_BUFFER_ARB, pbo[slot]);
+        gl.glReadPixels(0, 0, width, height,
+                        GL.GL_RGB, GL.GL_UNSIGNED_BYTE, 0L);
+        pboFrame[slot] = frame;
+
+        // Collect the oldest PBO (started numPBO-1 frames ago)
+        nextPBO = (nextPBO + 1) % numPBO;
+        collect(gl, nextPBO);
+
+        glState.bindBuffer(gl, GL.GL_PIXEL_PACK_BUFFER_ARB, 0);
+        profiler.end(Profiler.READBACK, start);
+    }
+
+    // Write out a frame rendered without GL (RGB rows bottom to top);
+    // the pixels are copied, so the array may be reused right away.
+    // May be called from several threads, as long as every frame number
+    // from the first one on is submitted exactly once.
+    public void capture(byte[] pixels, int w, int h, int frame)
+    {
+        synchronized (this) {
+            if (w != width || h != height) {
+                resizePool(w, h);
+            }
+        }
+
+        waitForTurn(frame);
+        long start = System.nanoTime();
+        byte[] copy = takeBuffer();
+        System.arraycopy(pixels, 0, copy, 0, w*h*3);
+        profiler.end(Profiler.READBACK, start);
+        submit(copy, frame, frame);
+    }
+
+    // Hand any frames still held in PBOs to the writers
+    // (needs the GL context to be current)
+    public void flush(GL gl)
+    {
+        if (!usePBO)
+            return;
+
+        for (int i = 0; i < numPBO; i++) {
+            collect(gl, nextPBO);
+            nextPBO = (nextPBO + 1) % numPBO;
+        }
+
+        glState.bindBuffer(gl, GL.GL_PIXEL_PACK_BUFFER_ARB, 0);
+    }
+
+    // Wait for all submitted frames to be written, stop the background
+    // threads and close the output
+    public void finish()
+    {
+        encoders.shutdown();
+        writer.shutdown();
+
+        try {
+            writer.awaitTermination(1, TimeUnit.HOURS);
+            sink.close();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            System.out.println(e);
+            System.exit(-1);
+        }
+    }
+
+    // ---------------------------------------------------------------
+
+    // Change frame size: flush old frames, then reallocate pool/PBOs
+    private void resize(GL gl, int w, int h)
+    {
+        flush(gl);
+        resizePool(w, h);
+
+        // (Re)create PBOs, if the driver has them
+        if (usePBO) {
+            gl.glDeleteBuffersARB(numPBO, pbo, 0);
+        }
+        usePBO = gl.isExtensionAvailable("GL_ARB_pixel_buffer_object");
+
+        if (usePBO) {
+            gl.glGenBuffersARB(numPBO, pbo, 0);
+            for (int i = 0; i < numPBO; i++) {
+                glState.bindBuffer(gl, GL.GL_PIXEL_PACK_BUFFER_ARB, pbo[i]);
+                gl.glBufferDataARB(GL.GL_PIXEL_PACK_BUFFER_ARB,
+                                   width*height*3, null,
+                                   GL.GL_STREAM_READ_ARB);
+                pboFrame[i] = -1;
+            }
+            glState.bindBuffer(gl, GL.GL_PIXEL_PACK_BUFFER_ARB, 0);
+            nextPBO = 0;
+        }
+    }
+
+    // Reallocate pool for a new frame size
+    private void resizePool(int w, int h)
+    {
+        // Wait until all pooled arrays are back, then drop them
+        waitForPool();
+        pool.clear();
+
+        width = w;
+        height = h;
+
+        for (int i = 0; i < poolSize; i++) {
+            pool.add(new byte[width*height*3]);
+        }
+        allocated = poolSize;
+    }
+
+    // Number of pixel arrays created for the current size
+    private int allocated = 0;
+
+    // Block until every array handed out has been returned to the pool
+    private void waitForPool()
+    {
+        while (pool.size() < allocated) {
+            try {
+                Thread.sleep(1);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    // Copy a filled PBO into a pooled array and submit it
+    private void collect(GL gl, int slot)
+    {
+        if (pboFrame[slot] < 0)
+            return;
+
+        glState.bindBuffer(gl, GL.GL_PIXEL_PACK_BUFFER_ARB, pbo[slot]);
+        ByteBuffer data = gl.glMapBufferARB(GL.GL_PIXEL_PACK_BUFFER_ARB,
+                                            GL.GL_READ_ONLY_ARB);
+        if (data != null) {
+            waitForTurn(glOrder);
+            byte[] pixels = takeBuffer();
+
+            data.get(pixels);
+            gl.glUnmapBufferARB(GL.GL_PIXEL_PACK_BUFFER_ARB);
+
+            submit(pixels, pboFrame[slot], glOrder++);
+        }
+
+        pboFrame[slot] = -1;
+    }
+
+    // Get a free pixel array (waits for the writers if none is free)
+    private byte[] takeBuffer()
+    {
+        try {
+            return pool.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return new byte[width*height*3];
+        }
+    }
+
+    // Wait until the writer is less than maxInFlight frames behind the
+    // frame at position order (called before taking a pooled array, so
+    // the thread holding the next frame to write never waits)
+    private void waitForTurn(int order)
+    {
+        synchronized (waiting) {
+            while (order >= nextOrder + maxInFlight) {
+                try {
+                    waiting.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+        }
+    }
+
+    // Queue a frame for encoding (its array goes back to the pool after
+    // that) and then writing at position order in the output sequence
+    private void submit(final byte[] pixels, final int frame,
+                        final int order)
+    {
+        final int w = width, h = height;
+        final long submitted = System.nanoTime();
+
+        final Future<byte[]> encoded = encoders.submit(new Callable<byte[]>() {
+                public byte[] call() {
+                    long start = System.nanoTime();
+                    try {
+                        return sink.encode(pixels, w, h);
+                    } finally {
+                        profiler.end(Profiler.ENCODE, start);
+                        pool.offer(pixels);
+                    }
+                }
+            });
+
+        writer.execute(new Runnable() {
+                public void run() {
+                    synchronized (waiting) {
+                        waiting.put(order, new Encoded(frame, encoded,
+                                                       w, h, submitted));
+                    }
+
+                    // Write every frame that is now next in order
+                    while (true) {
+                        Encoded next;
+
+                        synchronized (waiting) {
+                            next = waiting.remove(nextOrder);
+                        }
+                        if (next == null)
+                            break;
+
+                        try {
+                            byte[] data = next.data.get();
+                            long start = System.nanoTime();
+                            FrameWriteEvent event = new FrameWriteEvent();
+
+                            event.begin();
+                            sink.write(next.frame, data,
+                                       next.width, next.height);
+                            profiler.end(Profiler.WRITE, start);
+
+                            event.frame = next.frame;
+                            event.bytes = data.length;
+                            event.latency = System.nanoTime() - next.submitted;
+                            event.commit();
+                        } catch (Exception e) {
+                            System.out.println(e);
+                            System.exit(-1);
+                        }
+
+                        synchronized (waiting) {
+                            nextOrder++;
+                            waiting.notifyAll();
+                        }
+                    }
+                }
+            });
+    }
+}
@@ -0,0 +1,21 @@
+/* class FrameRenderEvent
+ * Flight Recorder event for one call of Scene.draw
+ *
+ */
+
+import jdk.jfr.*;
+
+@Name("cgproject.FrameRender")
+@Label("Frame Render")
+@Category({ "CG Project", "Rendering" })
+class FrameRenderEvent extends Event
+{
+    @Label("Frame")
+    int frame;
+
+    @Label("Objects Drawn")
+    int drawn;
+
+    @Label("Objects Culled")
+    int culled;
+}
@@ -0,0 +1,22 @@
+/* interface FrameSink
+ * Destination for dumped frames (a sequence of image files, or a single
+ * video file). Frames are encoded in parallel by encode(), then handed to
+ * write() one at a time, in frame order.
+ *
+ */
+
+import java.io.*;
+
+public interface FrameSink
+{
+    // Encode a frame of RGB pixels (rows stored bottom to top, as read
+    // from OpenGL); may be called from several threads at once
+    abstract byte[] encode(byte[] pixels, int width, int height);
+
+    // Write an encoded frame (called from one thread, in frame order)
+    abstract void write(int frame, byte[] data, int width, int height)
+        throws IOException;
+
+    // Finish output (after the last write)
+    abstract void close() throws IOException;
+}
@@ -0,0 +1,25 @@
+/* class FrameWriteEvent
+ * Flight Recorder event for writing one dumped frame to its FrameSink
+ * (the event duration is the write itself; latency is from when the
+ * frame was submitted for encoding)
+ *
+ */
+
+import jdk.jfr.*;
+
+@Name("cgproject.FrameWrite")
+@Label("Frame Write")
+@Category({ "CG Project", "Capture" })
+class FrameWriteEvent extends Event
+{
+    @Label("Frame")
+    int frame;
+
+    @Label("Bytes")
+    @DataAmount
+    long bytes;
+
+    @Label("Latency")
+    @Timespan(Timespan.NANOSECONDS)
+    long latency;
+}
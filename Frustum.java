@@ -0,0 +1,123 @@
+/* class Frustum
+ * The six clipping planes of the current view volume, extracted from the
+ * projection (SceneView.projection) and modelview (Scene.transformation)
+ * matrices, so objects outside of the view can be skipped when drawing.
+ * It also gives the on-screen size of things, for choosing how finely
+ * to tessellate them.
+ *
+ */
+
+import javax.vecmath.*;
+
+class Frustum
+{
+    // Planes (a,b,c,d) with a*x + b*y + c*z + d >= 0 on the inside,
+    // in the order left, right, bottom, top, near, far
+    private double[][] planes = new double[6][4];
+
+    // Matrices read back from the renderer (column-major)
+    private double[] proj = new double[16];
+    private double[] model = new double[16];
+    private double[] clip = new double[16];
+    private int[] viewport = new int[4];
+
+    // Whether isVisible really tests against the planes (if not, every
+    // object counts as visible)
+    boolean culling = true;
+
+    // Level of detail settings (see QualityGovernor): fraction of the
+    // real on-screen size used when choosing tessellation, and size (in
+    // pixels) below which tree leaves are skipped
+    double detail = 1;
+    double leafPixels = 0;
+
+    // Position of the eye (in the same coordinates as the planes)
+    Point3d eye = new Point3d();
+
+    // ---------------------------------------------------------------
+
+    // Compute planes from the renderer's current matrices; the planes are
+    // in the coordinate system that the modelview matrix currently maps from
+    public void extract(Renderer r)
+    {
+        r.getMatrices(proj, model);
+        r.getViewport(viewport);
+
+        // clip = proj * model
+        for (int col = 0; col < 4; col++) {
+            for (int row = 0; row < 4; row++) {
+                double sum = 0;
+                for (int k = 0; k < 4; k++) {
+                    sum += proj[row + 4*k] * model[k + 4*col];
+                }
+                clip[row + 4*col] = sum;
+            }
+        }
+
+        // Eye is where the modelview (a rotation and translation) maps
+        // the origin from
+        eye.x = -(model[0]*model[12] + model[1]*model[13] + model[2]*model[14]);
+        eye.y = -(model[4]*model[12] + model[5]*model[13] + model[6]*model[14]);
+        eye.z = -(model[8]*model[12] + model[9]*model[13] + model[10]*model[14]);
+
+        // Each plane is row 3 plus or minus one of rows 0..2
+        for (int i = 0; i < 6; i++) {
+            int row = i / 2;
+            double sign = (i % 2 == 0) ? 1 : -1;
+            double[] p = planes[i];
+
+            for (int col = 0; col < 4; col++) {
+                p[col] = clip[3 + 4*col] + sign * clip[row + 4*col];
+            }
+
+            // Normalize so distances are in world units
+            double len = Math.sqrt(p[0]*p[0] + p[1]*p[1] + p[2]*p[2]);
+            for (int col = 0; col < 4; col++) {
+                p[col] /= len;
+            }
+        }
+    }
+
+    // Whether any part of the sphere b may be inside the view volume
+    public boolean isVisible(Bounds b)
+    {
+        if (!culling)
+            return true;
+
+        for (int i = 0; i < 6; i++) {
+            double[] p = planes[i];
+
+            if (p[0]*b.center.x + p[1]*b.center.y + p[2]*b.center.z + p[3]
+                < -b.radius)
+                return false;
+        }
+
+        return true;
+    }
+
+    // Approximate number of pixels per unit length (vertically, on
+    // screen) for things at point p
+    public double pixelScale(Point3d p)
+    {
+        double w = depth(p);
+
+        // Up close or behind the eye: as detailed as possible
+        if (w <= 1e-6)
+            return Double.POSITIVE_INFINITY;
+
+        return proj[5] * viewport[3] / (2 * w);
+    }
+
+    // Same, scaled by detail (for choosing tessellation)
+    public double detailScale(Point3d p)
+    {
+        return detail * pixelScale(p);
+    }
+
+    // Distance of p from the eye along the view direction (clip w
+    // coordinate)
+    public double depth(Point3d p)
+    {
+        return clip[3]*p.x + clip[7]*p.y + clip[11]*p.z + clip[15];
+    }
+}
@@ -0,0 +1,331 @@
+/* class GLRenderer
+ * Renderer that draws through OpenGL (with state changes going through
+ * its own GLState)
+ *
+ */
+
+import java.nio.*;
+import java.util.*;
+
+import javax.media.opengl.GL;
+
+import com.sun.opengl.util.GLUT;
+
+class GLRenderer implements Renderer
+{
+    GL gl;
+    GLUT glut;
+
+    // Cached GL state of the context drawn into
+    GLState state = new GLState();
+
+    // Framebuffer object and depth buffer for drawing into textures
+    // (made on first use), and the size that depth buffer has
+    private int[] fbo = { 0 }, depthBuf = { 0 };
+    private int depthWidth, depthHeight;
+
+    // Sizes of the textures made
+    private HashMap<Integer, int[]> texSizes = new HashMap<Integer, int[]>();
+
+    // Viewport and clear color to go back to after drawing a texture
+    private int[] savedViewport = new int[4];
+    private float[] savedClear = new float[4];
+
+    public GLRenderer(GL glVal, GLUT glutVal)
+    {
+        gl = glVal;
+        glut = glutVal;
+    }
+
+    // Use a (possibly new) GL object for drawing
+    public void setGL(GL glVal)
+    {
+        gl = glVal;
+    }
+
+    // New context: textures and framebuffer objects of the old one are
+    // gone
+    public void invalidate()
+    {
+        state.invalidate();
+        fbo[0] = 0;
+        depthBuf[0] = 0;
+        texSizes.clear();
+    }
+
+    // ---------------------------------------------------------------
+    // Modelview matrix
+
+    public void loadIdentity()
+    {
+        gl.glLoadIdentity();
+    }
+
+    public void pushMatrix()
+    {
+        gl.glPushMatrix();
+    }
+
+    public void popMatrix()
+    {
+        gl.glPopMatrix();
+    }
+
+    public void translate(double x, double y, double z)
+    {
+        gl.glTranslated(x, y, z);
+    }
+
+    public void rotate(double angle, double x, double y, double z)
+    {
+        gl.glRotated(angle, x, y, z);
+    }
+
+    public void scale(double x, double y, double z)
+    {
+        gl.glScaled(x, y, z);
+    }
+
+    public void getMatrices(double[] proj, double[] model)
+    {
+        gl.glGetDoublev(GL.GL_PROJECTION_MATRIX, proj, 0);
+        gl.glGetDoublev(GL.GL_MODELVIEW_MATRIX, model, 0);
+    }
+
+    public void getViewport(int[] viewport)
+    {
+        gl.glGetIntegerv(GL.GL_VIEWPORT, viewport, 0);
+    }
+
+    // ---------------------------------------------------------------
+    // State
+
+    public void enable(int cap)
+    {
+        state.enable(gl, cap);
+    }
+
+    public void disable(int cap)
+    {
+        state.disable(gl, cap);
+    }
+
+    public void color(double r, double g, double b)
+    {
+        state.color(gl, r, g, b);
+    }
+
+    public void getColor(double[] c)
+    {
+        state.getColor(gl, c);
+    }
+
+    public void material(int pname, float[] v)
+    {
+        state.material(gl, GL.GL_FRONT_AND_BACK, pname, v);
+    }
+
+    public void material(int pname, float v)
+    {
+        state.material(gl, GL.GL_FRONT_AND_BACK, pname, v);
+    }
+
+    public void light(int pname, float[] v)
+    {
+        state.light(gl, GL.GL_LIGHT0, pname, v);
+    }
+
+    public void clipPlane(double[] eq)
+    {
+        gl.glClipPlane(GL.GL_CLIP_PLANE0, eq, 0);
+    }
+
+    // ---------------------------------------------------------------
+    // Geometry
+
+    public void begin(int mode)
+    {
+        gl.glBegin(mode);
+    }
+
+    public void normal(double x, double y, double z)
+    {
+        gl.glNormal3d(x, y, z);
+    }
+
+    public void vertex(double x, double y, double z)
+    {
+        gl.glVertex3d(x, y, z);
+    }
+
+    public void end()
+    {
+        gl.glEnd();
+    }
+
+    public int genLists(int n)
+    {
+        return gl.glGenLists(n);
+    }
+
+    // (colors given while compiling are only recorded, and calling a
+    // list may change the color, so the cached color is dropped)
+    public void newList(int list)
+    {
+        gl.glNewList(list, GL.GL_COMPILE);
+        state.forgetColor();
+    }
+
+    public void endList()
+    {
+        gl.glEndList();
+        state.forgetColor();
+    }
+
+    public void callList(int list)
+    {
+        gl.glCallList(list);
+        state.forgetColor();
+    }
+
+    // ---------------------------------------------------------------
+    // Textures
+
+    public int genTexture(int w, int h)
+    {
+        int[] tex = new int[1];
+        gl.glGenTextures(1, tex, 0);
+
+        state.bindTexture(gl, tex[0]);
+        gl.glTexParameteri(GL.GL_TEXTURE_2D, GL.GL_TEXTURE_MIN_FILTER, GL.GL_NEAREST);
+        gl.glTexParameteri(GL.GL_TEXTURE_2D, GL.GL_TEXTURE_MAG_FILTER, GL.GL_NEAREST);
+        gl.glTexParameteri(GL.GL_TEXTURE_2D, GL.GL_TEXTURE_WRAP_S, GL.GL_CLAMP_TO_EDGE);
+        gl.glTexParameteri(GL.GL_TEXTURE_2D, GL.GL_TEXTURE_WRAP_T, GL.GL_CLAMP_TO_EDGE);
+        gl.glTexImage2D(GL.GL_TEXTURE_2D, 0, GL.GL_RGBA8, w, h, 0, GL.GL_RGBA,
+                        GL.GL_UNSIGNED_BYTE, ByteBuffer.allocateDirect(4*w*h));
+
+        // Texels replace the lit color; transparent ones are dropped
+        gl.glTexEnvi(GL.GL_TEXTURE_ENV, GL.GL_TEXTURE_ENV_MODE, GL.GL_REPLACE);
+        gl.glAlphaFunc(GL.GL_GREATER, 0.5f);
+
+        texSizes.put(tex[0], new int[] { w, h });
+        return tex[0];
+    }
+
+    public void beginTexture(int tex, int x, int y, int w, int h,
+                             double l, double r, double b, double t,
+                             double n, double f)
+    {
+        int[] size = texSizes.get(tex);
+
+        if (fbo[0] == 0) {
+            gl.glGenFramebuffersEXT(1, fbo, 0);
+            gl.glGenRenderbuffersEXT(1, depthBuf, 0);
+            depthWidth = depthHeight = 0;
+        }
+
+        // Depth buffer as large as the texture
+        gl.glBindRenderbufferEXT(GL.GL_RENDERBUFFER_EXT, depthBuf[0]);
+        if (size[0] != depthWidth || size[1] != depthHeight) {
+            gl.glRenderbufferStorageEXT(GL.GL_RENDERBUFFER_EXT,
+                                        GL.GL_DEPTH_COMPONENT24,
+                                        size[0], size[1]);
+            depthWidth = size[0];
+            depthHeight = size[1];
+        }
+
+        // (textures aren't drawn from while one is drawn into)
+        bindTexture(0);
+
+        gl.glGetIntegerv(GL.GL_VIEWPORT, savedViewport, 0);
+        gl.glGetFloatv(GL.GL_COLOR_CLEAR_VALUE, savedClear, 0);
+
+        gl.glBindFramebufferEXT(GL.GL_FRAMEBUFFER_EXT, fbo[0]);
+        gl.glFramebufferTexture2DEXT(GL.GL_FRAMEBUFFER_EXT,
+                                     GL.GL_COLOR_ATTACHMENT0_EXT,
+                                     GL.GL_TEXTURE_2D, tex, 0);
+        gl.glFramebufferRenderbufferEXT(GL.GL_FRAMEBUFFER_EXT,
+                                        GL.GL_DEPTH_ATTACHMENT_EXT,
+                                        GL.GL_RENDERBUFFER_EXT, depthBuf[0]);
+
+        // Clear only the texels drawn into
+        gl.glViewport(x, y, w, h);
+        gl.glScissor(x, y, w, h);
+        gl.glEnable(GL.GL_SCISSOR_TEST);
+        gl.glClearColor(0, 0, 0, 0);
+        gl.glClear(GL.GL_COLOR_BUFFER_BIT | GL.GL_DEPTH_BUFFER_BIT);
+        gl.glDisable(GL.GL_SCISSOR_TEST);
+
+        gl.glMatrixMode(GL.GL_PROJECTION);
+        gl.glPushMatrix();
+        gl.glLoadIdentity();
+        gl.glOrtho(l, r, b, t, n, f);
+        gl.glMatrixMode(GL.GL_MODELVIEW);
+        gl.glPushMatrix();
+        gl.glLoadIdentity();
+    }
+
+    public void endTexture()
+    {
+        gl.glMatrixMode(GL.GL_PROJECTION);
+        gl.glPopMatrix();
+        gl.glMatrixMode(GL.GL_MODELVIEW);
+        gl.glPopMatrix();
+
+        gl.glBindFramebufferEXT(GL.GL_FRAMEBUFFER_EXT, 0);
+        gl.glViewport(savedViewport[0], savedViewport[1],
+                      savedViewport[2], savedViewport[3]);
+        gl.glClearColor(savedClear[0], savedClear[1], savedClear[2],
+                        savedClear[3]);
+    }
+
+    public void bindTexture(int tex)
+    {
+        if (tex == 0) {
+            state.disable(gl, GL.GL_TEXTURE_2D);
+            state.disable(gl, GL.GL_ALPHA_TEST);
+            return;
+        }
+
+        state.bindTexture(gl, tex);
+        state.enable(gl, GL.GL_TEXTURE_2D);
+        state.enable(gl, GL.GL_ALPHA_TEST);
+    }
+
+    public void texCoord(double s, double t)
+    {
+        gl.glTexCoord2d(s, t);
+    }
+
+    // ---------------------------------------------------------------
+
+    // Draw text with an orthographic projection, without lighting and
+    // depth testing (lighting is left off afterwards)
+    public void text(double x, double y, String s)
+    {
+	// Put orthographic matrix on projection stack
+	gl.glMatrixMode(GL.GL_PROJECTION);
+	gl.glPushMatrix();
+	gl.glLoadIdentity();
+	gl.glOrtho(0, 1, 0, 1, -1, 1);
+	gl.glMatrixMode(GL.GL_MODELVIEW);
+
+	state.disable(gl, GL.GL_LIGHTING);
+	state.disable(gl, GL.GL_DEPTH_TEST);
+
+	gl.glPushMatrix();
+	gl.glLoadIdentity();
+
+	gl.glRasterPos2d(x, y);
+        glut.glutBitmapString(GLUT.BITMAP_HELVETICA_18, s);
+
+	gl.glPopMatrix();
+
+	state.enable(gl, GL.GL_DEPTH_TEST);
+
+	// Put back original viewing matrix
+	gl.glMatrixMode(GL.GL_PROJECTION);
+	gl.glPopMatrix();
+	gl.glMatrixMode(GL.GL_MODELVIEW);
+    }
+}
@@ -0,0 +1,314 @@
+/* class GLState
+ * Thin state-tracking layer in front of GL: remembers the last value
+ * set for colors, materials, light colors, enable flags and buffer and
+ * texture bindings, and skips calls that would not change anything.
+ * Keeps count of calls issued to GL and calls skipped.
+ *
+ * One per GL context (each GLRenderer has its own). Only use these
+ * methods outside of display list compilation (a skipped call would be
+ * missing from the list), and call invalidate() whenever GL state may
+ * have been changed behind its back (e.g. new context).
+ *
+ * State is kept in plain arrays indexed through the small tables below;
+ * anything not in them is passed on to GL every time.
+ *
+ */
+
+import java.util.*;
+
+import javax.media.opengl.GL;
+
+class GLState
+{
+    // Capabilities, faces, material/light parameters and lights tracked
+    private static final int[] caps = {
+        GL.GL_LIGHTING, GL.GL_LIGHT0, GL.GL_DEPTH_TEST, GL.GL_COLOR_MATERIAL,
+        GL.GL_CLIP_PLANE0, GL.GL_NORMALIZE, GL.GL_TEXTURE_2D,
+        GL.GL_ALPHA_TEST, GL.GL_BLEND, GL.GL_CULL_FACE
+    };
+    private static final int[] faces = {
+        GL.GL_FRONT, GL.GL_BACK, GL.GL_FRONT_AND_BACK
+    };
+    private static final int[] params = {
+        GL.GL_AMBIENT, GL.GL_DIFFUSE, GL.GL_SPECULAR, GL.GL_EMISSION,
+        GL.GL_SHININESS
+    };
+    private static final int[] lightIds = { GL.GL_LIGHT0 };
+
+    // Number of calls passed on to GL, and number of calls skipped
+    long issued = 0, skipped = 0;
+
+    // Current color (valid only if colorKnown)
+    private boolean colorKnown = false;
+    private double red, green, blue;
+
+    // Known state of each capability (0 unknown, 1 on, -1 off)
+    private byte[] enabled = new byte[caps.length];
+
+    // Known material (by face and parameter) and light (by light and
+    // parameter) values: number of values known (0 for none), and the
+    // values
+    private int[] materialLen = new int[faces.length * params.length];
+    private float[][] materials = new float[faces.length * params.length][4];
+    private int[] lightLen = new int[lightIds.length * params.length];
+    private float[][] lights = new float[lightIds.length * params.length][4];
+
+    // Known pixel pack buffer and 2D texture bindings (-1 if unknown)
+    private int packBuffer = -1;
+    private int texture = -1;
+
+    // ---------------------------------------------------------------
+
+    // Forget all cached state (next call of each kind goes to GL)
+    public void invalidate()
+    {
+        colorKnown = false;
+        Arrays.fill(enabled, (byte)0);
+        Arrays.fill(materialLen, 0);
+        Arrays.fill(lightLen, 0);
+        packBuffer = -1;
+        texture = -1;
+    }
+
+    // Forget the current color and diffuse material (after a display
+    // list that may set them is called, or while one is compiled)
+    public void forgetColor()
+    {
+        colorKnown = false;
+        forgetMaterial(GL.GL_DIFFUSE);
+    }
+
+    // Reset call counters
+    public void resetCounts()
+    {
+        issued = 0;
+        skipped = 0;
+    }
+
+    // ---------------------------------------------------------------
+    // Color
+
+    public void color(GL gl, double r, double g, double b)
+    {
+        if (colorKnown && r == red && g == green && b == blue) {
+            skipped++;
+            return;
+        }
+
+        gl.glColor3d(r, g, b);
+        issued++;
+
+        red = r;
+        green = g;
+        blue = b;
+        colorKnown = true;
+
+        // With color material on, glColor also sets the diffuse material
+        if (isEnabled(GL.GL_COLOR_MATERIAL))
+            forgetMaterial(GL.GL_DIFFUSE);
+    }
+
+    // Get current color into c[0..2] (asks GL only if not known)
+    public void getColor(GL gl, double[] c)
+    {
+        if (!colorKnown) {
+            double[] cur = new double[4];
+            gl.glGetDoublev(GL.GL_CURRENT_COLOR, cur, 0);
+            issued++;
+
+            red = cur[0];
+            green = cur[1];
+            blue = cur[2];
+            colorKnown = true;
+        }
+
+        c[0] = red;
+        c[1] = green;
+        c[2] = blue;
+    }
+
+    // ---------------------------------------------------------------
+    // Enable/disable
+
+    public void enable(GL gl, int cap)
+    {
+        set(gl, cap, true);
+    }
+
+    public void disable(GL gl, int cap)
+    {
+        set(gl, cap, false);
+    }
+
+    private void set(GL gl, int cap, boolean on)
+    {
+        int i = indexOf(caps, cap);
+        byte state = (byte)(on ? 1 : -1);
+
+        if (i >= 0 && enabled[i] == state) {
+            skipped++;
+            return;
+        }
+
+        if (on)
+            gl.glEnable(cap);
+        else
+            gl.glDisable(cap);
+        issued++;
+
+        if (i >= 0)
+            enabled[i] = state;
+    }
+
+    private boolean isEnabled(int cap)
+    {
+        int i = indexOf(caps, cap);
+
+        // Unknown counts as enabled, to stay on the safe side
+        return i < 0 || enabled[i] >= 0;
+    }
+
+    // ---------------------------------------------------------------
+    // Materials and lights
+
+    public void material(GL gl, int face, int pname, float[] v)
+    {
+        int i = slot(faces, face, pname);
+
+        if (i >= 0 && same(materialLen[i], materials[i], v)) {
+            skipped++;
+            return;
+        }
+
+        gl.glMaterialfv(face, pname, v, 0);
+        issued++;
+
+        // Setting one face also changes the shared front/back value
+        forgetMaterial(pname);
+        if (i >= 0)
+            materialLen[i] = keep(materials[i], v);
+    }
+
+    public void material(GL gl, int face, int pname, float v)
+    {
+        int i = slot(faces, face, pname);
+
+        if (i >= 0 && materialLen[i] == 1 && materials[i][0] == v) {
+            skipped++;
+            return;
+        }
+
+        gl.glMaterialf(face, pname, v);
+        issued++;
+
+        forgetMaterial(pname);
+        if (i >= 0) {
+            materials[i][0] = v;
+            materialLen[i] = 1;
+        }
+    }
+
+    private void forgetMaterial(int pname)
+    {
+        int p = indexOf(params, pname);
+        if (p < 0)
+            return;
+
+        for (int f = 0; f < faces.length; f++)
+            materialLen[f * params.length + p] = 0;
+    }
+
+    // Light colors (not GL_POSITION, which depends on the modelview
+    // matrix at the time of the call, so it is always sent)
+    public void light(GL gl, int light, int pname, float[] v)
+    {
+        int i = slot(lightIds, light, pname);
+
+        if (i >= 0 && same(lightLen[i], lights[i], v)) {
+            skipped++;
+            return;
+        }
+
+        gl.glLightfv(light, pname, v, 0);
+        issued++;
+
+        if (i >= 0)
+            lightLen[i] = keep(lights[i], v);
+    }
+
+    // ---------------------------------------------------------------
+    // Bindings
+
+    public void bindBuffer(GL gl, int target, int buffer)
+    {
+        boolean pack = (target == GL.GL_PIXEL_PACK_BUFFER_ARB);
+
+        if (pack && buffer == packBuffer) {
+            skipped++;
+            return;
+        }
+
+        gl.glBindBufferARB(target, buffer);
+        issued++;
+
+        if (pack)
+            packBuffer = buffer;
+    }
+
+    public void bindTexture(GL gl, int tex)
+    {
+        if (tex == texture) {
+            skipped++;
+            return;
+        }
+
+        gl.glBindTexture(GL.GL_TEXTURE_2D, tex);
+        issued++;
+
+        texture = tex;
+    }
+
+    // ---------------------------------------------------------------
+
+    // Position of v in table, or -1
+    private static int indexOf(int[] table, int v)
+    {
+        for (int i = 0; i < table.length; i++) {
+            if (table[i] == v)
+                return i;
+        }
+        return -1;
+    }
+
+    // Slot of (face or light, parameter), or -1 if either isn't tracked
+    private static int slot(int[] table, int which, int pname)
+    {
+        int w = indexOf(table, which), p = indexOf(params, pname);
+
+        return (w < 0 || p < 0) ? -1 : w * params.length + p;
+    }
+
+    // Whether the len known values are the same as v
+    private static boolean same(int len, float[] known, float[] v)
+    {
+        if (len == 0 || len != v.length)
+            return false;
+
+        for (int i = 0; i < len; i++) {
+            if (known[i] != v[i])
+                return false;
+        }
+        return true;
+    }
+
+    // Remember v (at most 4 values) in known; number of values kept, 0
+    // if v is too long to be tracked
+    private static int keep(float[] known, float[] v)
+    {
+        if (v.length > known.length)
+            return 0;
+
+        System.arraycopy(v, 0, known, 0, v.length);
+        return v.length;
+    }
+}
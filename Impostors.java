@@ -0,0 +1,221 @@
+/* class Impostors
+ * Flat stand-ins for trees and bugs too small on screen to be worth
+ * their geometry. Each tree, and each of the bug's baked poses (see
+ * Bug.initialize), is drawn once from views directions around it into
+ * a row of cells of a texture atlas. After that, an object further than
+ * distance from the eye whose bounding sphere is less than pixels
+ * across on screen is drawn as a single quad, turned towards the eye
+ * about the vertical axis, showing the view taken nearest to the
+ * direction it is seen from.
+ *
+ * Views look down at elevation degrees, about as the default camera
+ * does (the quads themselves stand upright). Bugs are taken facing +x,
+ * so their shading doesn't follow their heading.
+ *
+ */
+
+import java.util.*;
+
+import javax.vecmath.*;
+
+class Impostors
+{
+    // Views around each object, size of a view (in texels), and rows of
+    // views per atlas page
+    static int views = 8;
+    static int cell = 64;
+    static final int pageRows = 16;
+
+    // Angle (degrees above level) the views are taken from
+    static double elevation = 20;
+
+    // Depth (distance in front of the eye) beyond which, and on-screen
+    // size (pixels across) below which, objects are drawn as impostors
+    // (pixels 0 for never). Everything in the standard view is nearer.
+    static double distance = 40;
+    static double pixels = 48;
+
+    // Atlas pages (textures), rows of trees, rows freed by trees gone
+    // from the scene, and rows of the bug poses (null if not made)
+    private Vector<Integer> pages = new Vector<Integer>();
+    private IdentityHashMap<Tree, Integer> treeRows =
+        new IdentityHashMap<Tree, Integer>();
+    private Vector<Integer> freeRows = new Vector<Integer>();
+    private int numRows = 0;
+    private int[] bugRows = null;
+
+    // Obstacles the atlas was made for
+    private Vector<Obstacle> madeFor = null;
+
+    // View volume of the view being drawn into the atlas (for the
+    // level of detail of trees)
+    private Frustum cellFrustum = new Frustum();
+
+    // ---------------------------------------------------------------
+
+    // Forget the atlas (its textures belong to a context that is gone)
+    public void reset()
+    {
+        pages.clear();
+        treeRows.clear();
+        freeRows.clear();
+        numRows = 0;
+        bugRows = null;
+        madeFor = null;
+    }
+
+    // Draw the views of trees among obstacles (and of the bug poses)
+    // not drawn yet, lit by a light at light (in scene coordinates).
+    // Must be called before anything else is drawn in the frame, as it
+    // changes the modelview.
+    public void update(Renderer r, Vector<Obstacle> obstacles, float[] light)
+    {
+        if (obstacles == madeFor)
+            return;
+        madeFor = obstacles;
+
+        // Keep rows of trees still there
+        IdentityHashMap<Tree, Integer> kept =
+            new IdentityHashMap<Tree, Integer>();
+        for (Obstacle o : obstacles) {
+            Integer row = treeRows.remove(o);
+            if (row != null)
+                kept.put((Tree)o, row);
+        }
+        freeRows.addAll(treeRows.values());
+        treeRows = kept;
+
+        if (bugRows == null && Bug.phases > 0) {
+            Bounds b = new Bounds();
+            b.set(0, 0, 0.75, 2.1);
+
+            bugRows = new int[Bug.phases];
+            for (int i = 0; i < bugRows.length; i++) {
+                bugRows[i] = newRow(r);
+                bake(r, bugRows[i], null, i, b, light);
+            }
+        }
+
+        for (Obstacle o : obstacles) {
+            if (o instanceof Tree && !treeRows.containsKey(o)) {
+                int row = newRow(r);
+                bake(r, row, (Tree)o, 0, o.getBounds(), light);
+                treeRows.put((Tree)o, row);
+            }
+        }
+    }
+
+    // Draw o (a tree or a bug with bounds b) as an impostor if it is
+    // far and small enough on screen and has one; false if it has to be
+    // drawn as it is
+    public boolean draw(Renderer r, Object o, Bounds b, Frustum frustum)
+    {
+        if (frustum.depth(b.center) <= distance ||
+            2 * b.radius * frustum.detailScale(b.center) >= pixels)
+            return false;
+
+        Integer row = null;
+        double heading = 0;
+
+        if (o instanceof Tree) {
+            row = treeRows.get(o);
+        } else if (o instanceof Bug && bugRows != null) {
+            Bug bug = (Bug)o;
+            if (bug.phase < 0)
+                return false;
+
+            int i = Math.min(bugRows.length - 1,
+                             (int)(bug.phase * bugRows.length));
+            row = bugRows[i];
+            heading = Math.atan2(bug.acc.y, bug.acc.x);
+        }
+        if (row == null)
+            return false;
+
+        // Direction towards the eye, and the view nearest to it
+        double a = Math.atan2(frustum.eye.y - b.center.y,
+                              frustum.eye.x - b.center.x);
+        int view = (int)Math.round((a - heading) * views / (2*Math.PI));
+        view = ((view % views) + views) % views;
+
+        // Cell of that view (half a texel in from its edges)
+        double w = views * cell, h = pageRows * cell;
+        double s0 = (view * cell + 0.5) / w, s1 = ((view + 1) * cell - 0.5) / w;
+        int y = (row % pageRows) * cell;
+        double t0 = (y + 0.5) / h, t1 = (y + cell - 0.5) / h;
+
+        // Quad across the bounding sphere, facing the eye
+        double rx = -Math.sin(a) * b.radius, ry = Math.cos(a) * b.radius;
+        Point3d c = b.center;
+
+        r.bindTexture(pages.elementAt(row / pageRows));
+        r.begin(Renderer.QUADS);
+        r.normal(Math.cos(a), Math.sin(a), 0);
+        r.texCoord(s0, t0);
+        r.vertex(c.x - rx, c.y - ry, c.z - b.radius);
+        r.texCoord(s1, t0);
+        r.vertex(c.x + rx, c.y + ry, c.z - b.radius);
+        r.texCoord(s1, t1);
+        r.vertex(c.x + rx, c.y + ry, c.z + b.radius);
+        r.texCoord(s0, t1);
+        r.vertex(c.x - rx, c.y - ry, c.z + b.radius);
+        r.end();
+        r.bindTexture(0);
+
+        return true;
+    }
+
+    // ---------------------------------------------------------------
+
+    // A free row of the atlas (adding a page if there is none)
+    private int newRow(Renderer r)
+    {
+        if (freeRows.size() > 0)
+            return freeRows.remove(freeRows.size() - 1);
+
+        if (numRows == pages.size() * pageRows)
+            pages.addElement(r.genTexture(views * cell, pageRows * cell));
+
+        return numRows++;
+    }
+
+    // Draw the views of tree (or, if null, of bug pose number pose, the
+    // bug facing +x at the origin) with bounds b into a row
+    private void bake(Renderer r, int row, Tree tree, int pose, Bounds b,
+                      float[] light)
+    {
+        int page = pages.elementAt(row / pageRows);
+        double R = b.radius;
+
+        double[] p = new double[Bug.keyFrames[0].length];
+        if (tree == null)
+            Bug.pose((pose + 0.5) / Bug.phases, p);
+
+        for (int view = 0; view < views; view++) {
+            r.beginTexture(page, view * cell, (row % pageRows) * cell,
+                           cell, cell, -R, R, -R, R, -R, R);
+
+            // Looking at the center from the view's direction (X forward,
+            // Y right, Z up, as in Scene.transformation)
+            r.rotate(-90, 1, 0, 0);
+            r.rotate(-90, 0, 0, 1);
+            r.rotate(elevation, 0, 1, 0);
+            r.rotate(-view * 360.0 / views, 0, 0, 1);
+            r.translate(-b.center.x, -b.center.y, -b.center.z);
+
+            r.light(Renderer.POSITION, light);
+            r.enable(Renderer.LIGHTING);
+
+            if (tree != null) {
+                cellFrustum.extract(r);
+                tree.draw(r, cellFrustum);
+            } else {
+                double px = cell / (2 * R);
+                Bug.drawParts(r, p, Objs.detail(1.3 * px),
+                              Objs.detail(0.5 * px), Objs.detail(0.15 * px));
+            }
+
+            r.endTexture();
+        }
+    }
+}
@@ -0,0 +1,243 @@
+/* class MJPEGSink
+ * Writes all frames to a single Motion-JPEG AVI file. Each frame is
+ * compressed to JPEG (with ImageIO, so in pure Java) by encode(), which
+ * runs on several threads; write() appends the compressed frames to the
+ * 'movi' list, and close() adds the index and fills in the header.
+ *
+ * Plain (not OpenDML) AVI uses 32-bit sizes, so a file is limited to
+ * 4 GB; use a .y4m stream for longer runs.
+ *
+ */
+
+import java.awt.image.*;
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.util.*;
+
+import javax.imageio.*;
+import javax.imageio.stream.*;
+
+class MJPEGSink implements FrameSink
+{
+    // Frames per second (the frame-by-frame clock runs at 30)
+    static final int fps = 30;
+
+    // JPEG quality (0..1)
+    static final float quality = 0.9f;
+
+    // Largest file size that plain AVI can describe
+    static final long maxSize = 0xffffffffL;
+
+    // Output file
+    private RandomAccessFile file;
+    private FileChannel channel;
+
+    // Frame size (set by first frame)
+    private int width = 0, height = 0;
+
+    // Index: offset (from start of 'movi') and size of each frame
+    private ByteArrayOutputStream index = new ByteArrayOutputStream();
+    private int numFrames = 0, maxFrameSize = 0;
+
+    // File positions of 'movi' fourcc, and current end of file
+    private long moviPos, pos;
+
+    // Size of the fixed part of the file before the first frame
+    static final int headerSize = 224;
+
+    // ---------------------------------------------------------------
+
+    public MJPEGSink(String filename) throws IOException
+    {
+        file = new RandomAccessFile(filename, "rw");
+        file.setLength(0);
+        channel = file.getChannel();
+
+        // Leave room for headers (written on close)
+        pos = headerSize;
+        moviPos = headerSize - 4;
+    }
+
+    // Compress frame to JPEG
+    public byte[] encode(byte[] pixels, int w, int h)
+    {
+        // Flip rows and convert RGB to BGR for the image raster
+        BufferedImage image =
+            new BufferedImage(w, h, BufferedImage.TYPE_3BYTE_BGR);
+        byte[] bgr =
+            ((DataBufferByte)image.getRaster().getDataBuffer()).getData();
+
+        for (int r = 0; r < h; r++) {
+            int src = w*3*(h-r-1), dst = w*3*r;
+            for (int x = 0; x < w; x++, src += 3, dst += 3) {
+                bgr[dst]   = pixels[src+2];
+                bgr[dst+1] = pixels[src+1];
+                bgr[dst+2] = pixels[src];
+            }
+        }
+
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(w*h/4);
+            ImageWriter writer =
+                ImageIO.getImageWritersByFormatName("jpeg").next();
+            ImageWriteParam param = writer.getDefaultWriteParam();
+
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(quality);
+
+            ImageOutputStream ios = ImageIO.createImageOutputStream(out);
+            writer.setOutput(ios);
+            writer.write(null, new IIOImage(image, null, null), param);
+            writer.dispose();
+            ios.close();
+
+            return out.toByteArray();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    // Append frame as a '00dc' chunk, and add it to the index
+    public void write(int frame, byte[] data, int w, int h)
+        throws IOException
+    {
+        if (numFrames == 0) {
+            width = w;
+            height = h;
+        }
+
+        int padded = data.length + (data.length & 1);
+        if (pos + 8 + padded + 16L * (numFrames + 1) + 8 > maxSize) {
+            throw new IOException("AVI size limit reached at frame " + frame);
+        }
+
+        ByteBuffer chunk = ByteBuffer.allocate(8 + padded);
+        chunk.order(ByteOrder.LITTLE_ENDIAN);
+        putFourCC(chunk, "00dc");
+        chunk.putInt(data.length);
+        chunk.put(data);
+        chunk.flip();
+        writeAt(chunk, pos);
+
+        // Index entry: keyframe, offset relative to 'movi' fourcc
+        ByteBuffer entry = ByteBuffer.allocate(16);
+        entry.order(ByteOrder.LITTLE_ENDIAN);
+        putFourCC(entry, "00dc");
+        entry.putInt(0x10);
+        entry.putInt((int)(pos - moviPos));
+        entry.putInt(data.length);
+        index.write(entry.array());
+
+        pos += 8 + padded;
+        numFrames++;
+        maxFrameSize = Math.max(maxFrameSize, data.length);
+    }
+
+    // Write index at end of file, then the headers at the start
+    public void close() throws IOException
+    {
+        byte[] idx = index.toByteArray();
+        ByteBuffer b = ByteBuffer.allocate(8 + idx.length);
+        b.order(ByteOrder.LITTLE_ENDIAN);
+        putFourCC(b, "idx1");
+        b.putInt(idx.length);
+        b.put(idx);
+        b.flip();
+        writeAt(b, pos);
+        long end = pos + 8 + idx.length;
+
+        b = ByteBuffer.allocate(headerSize);
+        b.order(ByteOrder.LITTLE_ENDIAN);
+
+        putFourCC(b, "RIFF");
+        b.putInt((int)(end - 8));
+        putFourCC(b, "AVI ");
+
+        // Header list
+        putFourCC(b, "LIST");
+        b.putInt(4 + 64 + 12 + 64 + 48);
+        putFourCC(b, "hdrl");
+
+        // Main AVI header
+        putFourCC(b, "avih");
+        b.putInt(56);
+        b.putInt(1000000 / fps);                // microseconds per frame
+        b.putInt((int)Math.min(Integer.MAX_VALUE,  // max bytes per second
+                               (long)maxFrameSize * fps));
+        b.putInt(0);                            // padding granularity
+        b.putInt(0x10);                         // AVIF_HASINDEX
+        b.putInt(numFrames);                    // total frames
+        b.putInt(0);                            // initial frames
+        b.putInt(1);                            // streams
+        b.putInt(maxFrameSize);                 // suggested buffer size
+        b.putInt(width);
+        b.putInt(height);
+        b.putInt(0); b.putInt(0); b.putInt(0); b.putInt(0);
+
+        // Stream list
+        putFourCC(b, "LIST");
+        b.putInt(4 + 64 + 48);
+        putFourCC(b, "strl");
+
+        // Stream header
+        putFourCC(b, "strh");
+        b.putInt(56);
+        putFourCC(b, "vids");
+        putFourCC(b, "MJPG");
+        b.putInt(0);                            // flags
+        b.putShort((short)0);                   // priority
+        b.putShort((short)0);                   // language
+        b.putInt(0);                            // initial frames
+        b.putInt(1);                            // scale
+        b.putInt(fps);                          // rate (rate/scale = fps)
+        b.putInt(0);                            // start
+        b.putInt(numFrames);                    // length
+        b.putInt(maxFrameSize);                 // suggested buffer size
+        b.putInt(-1);                           // quality (default)
+        b.putInt(0);                            // sample size
+        b.putShort((short)0);                   // frame rectangle
+        b.putShort((short)0);
+        b.putShort((short)width);
+        b.putShort((short)height);
+
+        // Stream format (BITMAPINFOHEADER)
+        putFourCC(b, "strf");
+        b.putInt(40);
+        b.putInt(40);
+        b.putInt(width);
+        b.putInt(height);
+        b.putShort((short)1);                   // planes
+        b.putShort((short)24);                  // bits per pixel
+        putFourCC(b, "MJPG");
+        b.putInt(width * height * 3);
+        b.putInt(0); b.putInt(0); b.putInt(0); b.putInt(0);
+
+        // Frame data list
+        putFourCC(b, "LIST");
+        b.putInt((int)(pos - moviPos));
+        putFourCC(b, "movi");
+
+        b.flip();
+        writeAt(b, 0);
+
+        channel.close();
+        file.close();
+    }
+
+    // ---------------------------------------------------------------
+
+    private void writeAt(ByteBuffer b, long at) throws IOException
+    {
+        while (b.hasRemaining()) {
+            at += channel.write(b, at);
+        }
+    }
+
+    private static void putFourCC(ByteBuffer b, String code)
+    {
+        for (int i = 0; i < 4; i++) {
+            b.put((byte)code.charAt(i));
+        }
+    }
+}
@@ -3,6 +3,7 @@
  *
  */
 
+import java.io.*;
 import java.util.*;
 import java.awt.*;
 import java.awt.event.*;
@@ -140,9 +141,10 @@ public class Main extends JFrame
                 {
                     Parameter.blockAction(true);
 
-                    scene.build();
-                    scene.resetClock();
+                    // (the scene restarts its clock when the new
+                    // contents are swapped in)
                     scene.reset();
+                    scene.requestBuild();
 
                     Parameter.blockAction(false);
 
@@ -158,7 +160,7 @@ public class Main extends JFrame
             {
                 public void actionPerformed(ActionEvent e)
                 {
-                    System.exit(0);
+                    worldDraw.quit();
                 }
             });
         
@@ -211,18 +213,47 @@ public class Main extends JFrame
                      scene.getParams(), 
                      scene.getOptions(), 
                      "Scene parameters");
-
-        // ------------------------------------------------------
-
-        // Exit when window closes
-        addWindowListener(
-            new WindowAdapter()
+        makeControls(cc, clayout, ccon,
+                     scene.getGenParams(), 
+                     new Vector<BooleanParameter>(), 
+                     "Generation");
+
+        // Progress of scene building (which runs in the background)
+        final JProgressBar progress = new JProgressBar(0, 100);
+        progress.setStringPainted(true);
+        progress.setString("");
+
+        GridBagConstraints pcon = (GridBagConstraints)ccon.clone();
+        pcon.weighty = 0.0;
+        pcon.fill = GridBagConstraints.HORIZONTAL;
+        clayout.setConstraints(progress, pcon);
+        cc.add(progress);
+
+        new javax.swing.Timer(100, new ActionListener()
             {
-                public void windowClosing(WindowEvent e)
+                public void actionPerformed(ActionEvent e)
                 {
-                    System.exit(0);
+                    double p = scene.buildProgress();
+
+                    if (p < 0) {
+                        progress.setValue(0);
+                        progress.setString("");
+                        return;
+                    }
+
+                    progress.setValue((int)(100 * p));
+                    progress.setString("Building scene");
+
+                    // Draw new contents once done (if not animating)
+                    if (p >= 1)
+                        refresh();
                 }
-            });
+            }).start();
+
+        // ------------------------------------------------------
+
+        // (Exit when window closes is handled by worldDraw, so that
+        // dumped frames still being written are not lost)
 
         // Placement of window on screen
         setLocation(100, 50);
@@ -240,6 +271,14 @@ public class Main extends JFrame
         double speed = 1;
         String dumpPrefix = null;
         boolean nice = false;
+        int offWidth = 0, offHeight = 0;
+        int frames = 300;
+        boolean software = false;
+        int workers = 1, start = 0;
+        String profileFile = null;
+        String stateFile = null;
+        String recordFile = null, replayFile = null;
+        String checkpointFile = null;
 
         // Parse command-line arguments
         try {
@@ -262,9 +301,45 @@ public class Main extends JFrame
                         System.out.println("Using default dump prefix: " +
                                            dumpPrefix);
                     }
+                } else if (args[i].equals("-offscreen")) {
+                    // Size given as WIDTHxHEIGHT
+                    String[] size = args[++i].split("x");
+                    offWidth = Integer.parseInt(size[0]);
+                    offHeight = Integer.parseInt(size[1]);
+                } else if (args[i].equals("-frames")) {
+                    frames = Integer.parseInt(args[++i]);
+                } else if (args[i].equals("-software")) {
+                    software = true;
+                } else if (args[i].equals("-workers")) {
+                    workers = Integer.parseInt(args[++i]);
+                    software = true;
+                } else if (args[i].equals("-start")) {
+                    start = Integer.parseInt(args[++i]);
+                    software = true;
+                } else if (args[i].equals("-profile")) {
+                    profileFile = args[++i];
+                } else if (args[i].equals("-state")) {
+                    stateFile = args[++i];
+                } else if (args[i].equals("-record")) {
+                    recordFile = args[++i];
+                } else if (args[i].equals("-replay")) {
+                    replayFile = args[++i];
+                } else if (args[i].equals("-checkpoints")) {
+                    checkpointFile = args[++i];
+                } else if (args[i].equals("-poses")) {
+                    Bug.phases = Integer.parseInt(args[++i]);
+                } else if (args[i].equals("-impostors")) {
+                    Impostors.pixels = Double.parseDouble(args[++i]);
                 } else {
                     System.out.println("Usage: java Main [-nice] [-seed #]" +
-                                       " [-speed #] [-dump (prefix)]");
+                                       " [-speed #] [-dump (prefix)]" +
+                                       " [-offscreen WxH] [-frames #]" +
+                                       " [-software] [-workers #]" +
+                                       " [-start #] [-profile file.csv]" +
+                                       " [-state file] [-record file]" +
+                                       " [-replay file]" +
+                                       " [-checkpoints file]" +
+                                       " [-poses #] [-impostors #]");
                     throw new Exception("Illegal argument: " + args[i]);
                 }
             }
@@ -275,15 +350,117 @@ public class Main extends JFrame
             System.exit(1);
         }
 
+        // Software rendering is always offscreen (default size 640x480)
+        if (software) {
+            System.setProperty("java.awt.headless", "true");
+
+            if (offWidth == 0) {
+                offWidth = 640;
+                offHeight = 480;
+            }
+        }
+
+        // Offscreen rendering always dumps
+        if (offWidth > 0 && dumpPrefix == null) {
+            dumpPrefix = new String("/tmp/" +
+                                    System.getProperty("user.name", "dump") +
+                                    "/image");
+            System.out.println("Using default dump prefix: " + dumpPrefix);
+        }
+
         // Create main window
         try {
             scene = new Scene(seed, nice, speed, dumpPrefix);
 
             scene.resetClock();
 
+            // Write frame phase times when the program exits
+            if (profileFile != null) {
+                final String csv = profileFile;
+
+                Runtime.getRuntime().addShutdownHook(new Thread() {
+                        public void run() {
+                            try {
+                                scene.profiler.writeCSV(csv);
+                            } catch (IOException e) {
+                                System.out.println(e);
+                            }
+                        }
+                    });
+            }
+
+            // Publish critter state (for up to 4096 critters)
+            if (stateFile != null)
+                scene.stateFile = new CritterStateFile(stateFile, 4096);
+
+            // Record critter trajectories (the log is finished when
+            // the program exits), or play them back
+            if (recordFile != null) {
+                final TrajectoryRecorder recorder =
+                    new TrajectoryRecorder(recordFile);
+                scene.recorder = recorder;
+
+                Runtime.getRuntime().addShutdownHook(new Thread() {
+                        public void run() {
+                            try {
+                                recorder.close();
+                            } catch (IOException e) {
+                                System.out.println(e);
+                            }
+                        }
+                    });
+            }
+            if (replayFile != null)
+                scene.player = new TrajectoryPlayer(replayFile);
+
+            // Keep simulation snapshots every 300 frames (10 seconds),
+            // starting from those of an earlier run; all of them are
+            // written back when the program exits
+            if (checkpointFile != null) {
+                final String file = checkpointFile;
+
+                if (new File(file).exists()) {
+                    scene.checkpoints = Checkpoints.read(file);
+                } else {
+                    scene.checkpoints = new Checkpoints(300);
+                }
+
+                Runtime.getRuntime().addShutdownHook(new Thread() {
+                        public void run() {
+                            try {
+                                scene.checkpoints.write(file);
+                            } catch (IOException e) {
+                                System.out.println(e);
+                            }
+                        }
+                    });
+            }
+
             if (dumpPrefix != null)
               scene.setFrameByFrameClock();
 
+            if (offWidth > 0) {
+                // Render frames without a window, then quit
+                scene.drawAnimation.set(true);
+
+                if (software && (workers > 1 || start > 0)) {
+                    // Split the frames over several scenes/renderers
+                    BatchRenderer batch =
+                        new BatchRenderer(scene, offWidth, offHeight, workers);
+                    batch.render(start, frames);
+                } else if (software) {
+                    SoftwareView soft =
+                        new SoftwareView(scene, offWidth, offHeight);
+                    soft.render(frames);
+                } else {
+                    OffscreenView off =
+                        new OffscreenView(scene, offWidth, offHeight);
+                    off.render(frames);
+                }
+
+                System.exit(0);
+            }
+
             Main m = new Main();
 
         } catch (Exception e) {
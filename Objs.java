@@ -1,124 +1,180 @@
 /* class Objs
  * Methods to draw primitive objects (sphere, cylinder)
  *
+ * Each object comes in several tessellations (levels); callers pass the
+ * number of segments they need, which detail() picks from the size the
+ * object has on screen.
+ *
  */
 import java.util.*;
 
-import javax.media.opengl.GL;
 import javax.vecmath.*;
 
 class Objs
 {
+    // Highest number of segments used
     static int res;
 
-    // Display list stuff
+    // Numbers of segments around available (up to res)
+    static final int[] levels = { 4, 8, 16, 32 };
+
+    // Largest length (in pixels) of one segment around an object
+    static double segmentPixels = 4;
+
+    // Display list stuff (one list per level)
     private static boolean useDL = false;
-    private static int cylDisplayList = -1;
-    private static int sphDisplayList = -1;
+    private static int[] cylDisplayList = new int[levels.length];
+    private static int[] sphDisplayList = new int[levels.length];
 
-    public static void initialize(GL gl, int res_, boolean useDL_)
+    public static void initialize(Renderer r, int res_, boolean useDL_)
     {
         res = res_;
 
         if (useDL_) {
             // Create display list ids
-            sphDisplayList = gl.glGenLists(2);
-            cylDisplayList = sphDisplayList + 1;
-
-            // Define display lists
-            gl.glNewList(sphDisplayList, GL.GL_COMPILE);
-            sphere(gl);
-            gl.glEndList();
-            
-            gl.glNewList(cylDisplayList, GL.GL_COMPILE);
-            cylinder(gl);
-            gl.glEndList();
+            int first = r.genLists(2*levels.length);
+
+            // Define display lists (from the geometry, not from lists
+            // made for an earlier context)
+            useDL = false;
+
+            for (int i = 0; i < levels.length; i++) {
+                sphDisplayList[i] = first + 2*i;
+                cylDisplayList[i] = first + 2*i + 1;
+
+                r.newList(sphDisplayList[i]);
+                sphere(r, levels[i]);
+                r.endList();
+
+                r.newList(cylDisplayList[i]);
+                cylinder(r, levels[i]);
+                r.endList();
+            }
 
             useDL = true;
         }
     }
 
+    // Number of segments for an object of the given diameter on screen
+    // (in pixels): the smallest level whose segments are short enough,
+    // but no more than res
+    public static int detail(double pixels)
+    {
+        int n = levels[0];
+
+        for (int i = 0; i < levels.length && levels[i] <= res; i++) {
+            n = levels[i];
+            if (Math.PI * pixels / n <= segmentPixels)
+                break;
+        }
+
+        return n;
+    }
+
+    // Index of the level with n segments (the next finer one if n is
+    // not a level)
+    static int level(int n)
+    {
+        for (int i = 0; i < levels.length; i++) {
+            if (levels[i] >= n)
+                return i;
+        }
+        return levels.length - 1;
+    }
+
     // Draw a sphere whose axis is along Z-axis with diameter 1 and
     // poles at z=0.5 and z=-0.5
-    public static void sphere(GL gl)
+    public static void sphere(Renderer r)
+    {
+        sphere(r, res);
+    }
+
+    // Same, with n segments around
+    public static void sphere(Renderer r, int n)
     {
         // Use display list if defined
         if (useDL) {
-            gl.glCallList(sphDisplayList);
+            r.callList(sphDisplayList[level(n)]);
             return;
         }
 
-        int ures = res+1, vres = res-1;
+        int ures = n+1, vres = n-1;
 
         for (int vi = 0; vi < vres-1; vi++) {
             double v = Math.PI*vi/(vres-1) - Math.PI/2;
             double vn = Math.PI*(vi+1)/(vres-1) - Math.PI/2;
 
-            gl.glBegin(GL.GL_QUAD_STRIP);
+            r.begin(Renderer.QUAD_STRIP);
             for (int ui = 0; ui < ures; ui++) {
                 double u = 2*Math.PI*ui/(ures-1);
-                gl.glNormal3d(Math.cos(u)*Math.cos(v),
+                r.normal(Math.cos(u)*Math.cos(v),
                               Math.sin(u)*Math.cos(v),
                               Math.sin(v));
-                gl.glVertex3d(0.5*Math.cos(u)*Math.cos(v),
+                r.vertex(0.5*Math.cos(u)*Math.cos(v),
                               0.5*Math.sin(u)*Math.cos(v),
                               0.5*Math.sin(v));
-                gl.glNormal3d(Math.cos(u)*Math.cos(vn),
+                r.normal(Math.cos(u)*Math.cos(vn),
                               Math.sin(u)*Math.cos(vn),
                               Math.sin(vn));
-                gl.glVertex3d(0.5*Math.cos(u)*Math.cos(vn),
+                r.vertex(0.5*Math.cos(u)*Math.cos(vn),
                               0.5*Math.sin(u)*Math.cos(vn),
                               0.5*Math.sin(vn));
             }
-            gl.glEnd();
+            r.end();
         }
     }
 
     // Draw a cylinder along Z-axis ranging from z=0 to z=1 that
     // has a diameter of 1
-    public static void cylinder(GL gl)
+    public static void cylinder(Renderer r)
+    {
+        cylinder(r, res);
+    }
+
+    // Same, with n segments around
+    public static void cylinder(Renderer r, int n)
     {
         // Use display list if defined
         if (useDL) {
-            gl.glCallList(cylDisplayList);
+            r.callList(cylDisplayList[level(n)]);
             return;
         }
 
-        int ures = res, vres = 2;
+        int ures = n, vres = 2;
 
         // Bottom
-        gl.glBegin(GL.GL_POLYGON);
-        gl.glNormal3d(0, 0, -1);
+        r.begin(Renderer.POLYGON);
+        r.normal(0, 0, -1);
         for (int i = 0; i < ures; i++) {
             double u = 2*Math.PI*i/(ures-1);
-            gl.glVertex3d(0.5*Math.cos(u), 0.5*Math.sin(u), 0);
+            r.vertex(0.5*Math.cos(u), 0.5*Math.sin(u), 0);
         }
-        gl.glEnd();
+        r.end();
 
         // Top
-        gl.glBegin(GL.GL_POLYGON);
-        gl.glNormal3d(0, 0, 1);
+        r.begin(Renderer.POLYGON);
+        r.normal(0, 0, 1);
         for (int i = 0; i < ures; i++) {
             double u = 2*Math.PI*i/(ures-1);
-            gl.glVertex3d(0.5*Math.cos(u), 0.5*Math.sin(u), 1);
+            r.vertex(0.5*Math.cos(u), 0.5*Math.sin(u), 1);
         }
-        gl.glEnd();
+        r.end();
 
         // Tube
         for (int vi = 0; vi < vres-1; vi++) {
             double v = vi/(vres-1);
             double vn = (vi+1)/(vres-1);
 
-            gl.glBegin(GL.GL_QUAD_STRIP);
+            r.begin(Renderer.QUAD_STRIP);
             for (int ui = 0; ui < ures; ui++) {
                 double u = 2*Math.PI*ui/(ures-1);
-                gl.glNormal3d(Math.cos(u), Math.sin(u), 0);
-                gl.glVertex3d(0.5*Math.cos(u), 0.5*Math.sin(u), v);
+                r.normal(Math.cos(u), Math.sin(u), 0);
+                r.vertex(0.5*Math.cos(u), 0.5*Math.sin(u), v);
 
-                gl.glNormal3d(Math.cos(u), Math.sin(u), 0);
-                gl.glVertex3d(0.5*Math.cos(u), 0.5*Math.sin(u), vn);
+                r.normal(Math.cos(u), Math.sin(u), 0);
+                r.vertex(0.5*Math.cos(u), 0.5*Math.sin(u), vn);
             }
-            gl.glEnd();
+            r.end();
         }
     }
 }
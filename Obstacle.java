@@ -4,7 +4,6 @@
  *
  */
 
-import javax.media.opengl.GL;
 import javax.vecmath.*;
 
 public interface Obstacle
@@ -12,6 +11,15 @@ public interface Obstacle
     // Getter method for 3D position
     abstract Point3d getLocation();
 
-    // Method to draw obstacle
-    abstract void draw(GL gl);
+    // Bounding sphere enclosing the whole obstacle
+    abstract Bounds getBounds();
+
+    // Radius of the circle around getLocation() that critters can't
+    // enter (its footprint on the ground)
+    abstract double getRadius();
+
+    // Method to draw obstacle (frustum may be used to skip parts that
+    // can't be seen and to pick their detail; null means draw
+    // everything at full detail)
+    abstract void draw(Renderer r, Frustum frustum);
 }
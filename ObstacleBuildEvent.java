@@ -0,0 +1,16 @@
+/* class ObstacleBuildEvent
+ * Flight Recorder event for generating one scene element (tree, rock or
+ * bug) in Scene.build
+ *
+ */
+
+import jdk.jfr.*;
+
+@Name("cgproject.ObstacleBuild")
+@Label("Obstacle Build")
+@Category({ "CG Project", "Simulation" })
+class ObstacleBuildEvent extends Event
+{
+    @Label("Kind")
+    String kind;
+}
@@ -0,0 +1,139 @@
+/* class OffscreenView
+ * Renders the scene into an offscreen pbuffer of any size, without a
+ * window, and dumps every frame (for batch rendering with -offscreen;
+ * works with software OpenGL such as Mesa under Xvfb); without a dump
+ * prefix frames are only rendered
+ *
+ */
+
+import javax.media.opengl.GL;
+import javax.media.opengl.GLAutoDrawable;
+import javax.media.opengl.GLCapabilities;
+import javax.media.opengl.GLDrawableFactory;
+import javax.media.opengl.GLEventListener;
+import javax.media.opengl.GLException;
+import javax.media.opengl.GLPbuffer;
+
+import com.sun.opengl.util.GLUT;
+
+public class OffscreenView implements GLEventListener
+{
+    Scene s;
+
+    // Offscreen drawable and its size
+    private GLPbuffer pbuffer;
+    private int width, height;
+
+    // OpenGL setup and drawing of the scene
+    private SceneView view;
+
+    // Frame readback and writing (null if not dumping)
+    private FrameCapture capture;
+
+    // Set when done rendering (next display only flushes)
+    private boolean finishing = false;
+
+    // ---------------------------------------------------------------
+
+    public OffscreenView(Scene sc, int w, int h)
+    {
+        s = sc;
+        width = w;
+        height = h;
+
+        GLDrawableFactory factory = GLDrawableFactory.getFactory();
+        if (!factory.canCreateGLPbuffer()) {
+            throw new GLException("Offscreen (pbuffer) rendering " +
+                                  "not supported");
+        }
+
+        // Single buffered: frames are read from the front buffer
+        GLCapabilities caps = new GLCapabilities();
+        caps.setDoubleBuffered(false);
+        caps.setDepthBits(24);
+
+        pbuffer = factory.createGLPbuffer(caps, null, width, height, null);
+        pbuffer.addGLEventListener(this);
+
+        view = new SceneView(s, new GLUT());
+
+        if (s.dumpPrefix != null) {
+            capture = new FrameCapture(s.dumpPrefix);
+            capture.profiler = s.profiler;
+            capture.readBuffer = GL.GL_FRONT;
+            capture.glState = view.renderer.state;
+        }
+    }
+
+    // Render and dump the given number of frames, then wait for the
+    // output to be written
+    public void render(int frames)
+    {
+        for (int i = 0; i < frames; i++) {
+            renderFrame();
+        }
+
+        finish();
+    }
+
+    // Render (and dump) the next frame
+    public void renderFrame()
+    {
+        pbuffer.display();
+    }
+
+    // Wait for the output to be written, and release the pbuffer
+    public void finish()
+    {
+        if (capture != null) {
+            finishing = true;
+            pbuffer.display();
+            capture.finish();
+        }
+
+        pbuffer.destroy();
+    }
+
+    // ------------------------------------------------------------
+    // GLEventListener
+
+    public void init(GLAutoDrawable drawable)
+    {
+        GL gl = drawable.getGL();
+
+        view.init(gl);
+        view.projection(gl, width, height);
+    }
+
+    public void reshape(GLAutoDrawable drawable, int x, int y,
+                        int w, int h)
+    {
+        view.projection(drawable.getGL(), w, h);
+    }
+
+    public void display(GLAutoDrawable drawable)
+    {
+        GL gl = drawable.getGL();
+
+        if (finishing) {
+            capture.flush(gl);
+            return;
+        }
+
+        view.draw(gl);
+
+        if (capture != null) {
+            gl.glFlush();
+            capture.capture(gl, width, height, s.getFrameNumber());
+        } else {
+            // (wait for the frame to be done, so it can be timed)
+            gl.glFinish();
+        }
+        s.incrementFrameNumber();
+    }
+
+    public void displayChanged(GLAutoDrawable drawable,
+                               boolean modeChanged, boolean deviceChanged)
+    {
+    }
+}
@@ -0,0 +1,55 @@
+/* class PNMSink
+ * Writes each frame to its own binary PPM file, named by the prefix
+ * followed by the (zero padded) frame number
+ *
+ */
+
+import java.io.*;
+import java.text.*;
+
+class PNMSink implements FrameSink
+{
+    // File prefix for output
+    private String prefix;
+
+    // ---------------------------------------------------------------
+
+    public PNMSink(String prefixVal)
+    {
+        prefix = prefixVal;
+    }
+
+    // Header followed by rows in top to bottom order
+    public byte[] encode(byte[] pixels, int w, int h)
+    {
+        String header = new String("P6" + '\n' +
+                                   w + " " + h + '\n' +
+                                   "255" + '\n');
+        byte[] bhead = header.getBytes();
+        byte[] data = new byte[bhead.length + w*h*3];
+
+        System.arraycopy(bhead, 0, data, 0, bhead.length);
+        for (int r = 0; r < h; r++) {
+            System.arraycopy(pixels, w*3*(h-r-1),
+                             data, bhead.length + w*3*r, w*3);
+        }
+
+        return data;
+    }
+
+    public void write(int frame, byte[] data, int w, int h)
+        throws IOException
+    {
+        DecimalFormat digits = new DecimalFormat("0000");
+
+        String filename = new String(prefix + digits.format(frame) + ".ppm");
+
+        FileOutputStream stream = new FileOutputStream(filename);
+        stream.write(data);
+        stream.close();
+    }
+
+    public void close()
+    {
+    }
+}
@@ -3,9 +3,13 @@
  * These values are reflected internally, as well as in the GUI and must
  * be presented and updated consistently
  *
+ * The value itself lives in a ParameterStore (see attach), so threads
+ * other than the interface thread see it safely.
+ *
  */
 
 import java.util.*;
+import java.util.concurrent.atomic.*;
 
 import javax.swing.JComponent;
 
@@ -20,11 +24,15 @@ public abstract class Parameter
     // Level of effect of this parameter
     int dirtyLevel;
 
+    // Store holding the value, and its slot there
+    ParameterStore store;
+    int slot = -1;
+
     // Global indicator for interface status
     //  - 0 indicates all is well
     //  - 1 indicated a redraw is needed due to values being changed
     //  - 2 indicates a recomputation is needed
-    static int dirty = 2;
+    static AtomicInteger dirty = new AtomicInteger(2);
 
     // Indicates whether a block action is in progress
     private static boolean blockActionOn = false;
@@ -45,6 +53,19 @@ public abstract class Parameter
     // Abstract method for resetting value
     public abstract void reset();
 
+    // Abstract method for putting the value in a store (starting at the
+    // default); must be called before the value is used
+    public abstract void attach(ParameterStore s);
+
+    // Raise dirty to at least this parameter's level
+    protected void markDirty()
+    {
+        int d;
+        do {
+            d = dirty.get();
+        } while (d < dirtyLevel && !dirty.compareAndSet(d, dirtyLevel));
+    }
+
     // Accessor for blockActionOn
     public static boolean blockAction(boolean on)
     {
@@ -64,13 +85,12 @@ public abstract class Parameter
           return;
 
         // Update GUI if values are changed (dirty)
-        switch (dirty) {
+        switch (dirty.getAndSet(0)) {
           case 2:
             Main.recompute();
           case 1:
             Main.refresh();
             break;
         }
-        dirty = 0;
     }
 }
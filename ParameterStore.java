@@ -0,0 +1,118 @@
+/* class ParameterStore
+ * Holds the current values of a scene's parameters as an immutable,
+ * versioned Snapshot behind a single reference. The interface thread
+ * publishes a new snapshot for every change (copy on write, without
+ * locks); the render and simulation threads take one snapshot per frame,
+ * so they always see a consistent set of values.
+ *
+ */
+
+import java.util.concurrent.atomic.*;
+
+class ParameterStore
+{
+    // Parameter values at one moment (never changed once published)
+    static class Snapshot
+    {
+        // Increases with every change
+        final long version;
+
+        private final double[] doubles;
+        private final boolean[] booleans;
+
+        Snapshot(long versionVal, double[] doublesVal, boolean[] booleansVal)
+        {
+            version = versionVal;
+            doubles = doublesVal;
+            booleans = booleansVal;
+        }
+
+        public double get(DoubleParameter p)
+        {
+            return doubles[p.slot];
+        }
+
+        public boolean get(BooleanParameter p)
+        {
+            return booleans[p.slot];
+        }
+    }
+
+    // Latest snapshot
+    private AtomicReference<Snapshot> current =
+        new AtomicReference<Snapshot>(new Snapshot(0, new double[0],
+                                                   new boolean[0]));
+
+    // ---------------------------------------------------------------
+
+    // Latest values
+    public Snapshot snapshot()
+    {
+        return current.get();
+    }
+
+    // Add a parameter with initial value v; returns its slot
+    public int add(double v)
+    {
+        while (true) {
+            Snapshot old = current.get();
+            double[] d = new double[old.doubles.length + 1];
+
+            System.arraycopy(old.doubles, 0, d, 0, old.doubles.length);
+            d[old.doubles.length] = v;
+
+            if (current.compareAndSet(old, new Snapshot(old.version + 1, d,
+                                                        old.booleans)))
+                return old.doubles.length;
+        }
+    }
+    public int add(boolean v)
+    {
+        while (true) {
+            Snapshot old = current.get();
+            boolean[] b = new boolean[old.booleans.length + 1];
+
+            System.arraycopy(old.booleans, 0, b, 0, old.booleans.length);
+            b[old.booleans.length] = v;
+
+            if (current.compareAndSet(old, new Snapshot(old.version + 1,
+                                                        old.doubles, b)))
+                return old.booleans.length;
+        }
+    }
+
+    // Publish a new value for the parameter in slot (nothing happens if
+    // it is unchanged)
+    public void set(int slot, double v)
+    {
+        while (true) {
+            Snapshot old = current.get();
+
+            if (old.doubles[slot] == v)
+                return;
+
+            double[] d = old.doubles.clone();
+            d[slot] = v;
+
+            if (current.compareAndSet(old, new Snapshot(old.version + 1, d,
+                                                        old.booleans)))
+                return;
+        }
+    }
+    public void set(int slot, boolean v)
+    {
+        while (true) {
+            Snapshot old = current.get();
+
+            if (old.booleans[slot] == v)
+                return;
+
+            boolean[] b = old.booleans.clone();
+            b[slot] = v;
+
+            if (current.compareAndSet(old, new Snapshot(old.version + 1,
+                                                        old.doubles, b)))
+                return;
+        }
+    }
+}
@@ -0,0 +1,182 @@
+/* class Profiler
+ * Records how long each phase of a frame takes (System.nanoTime spans)
+ * in fixed-size histograms, and reports median, 99th percentile and
+ * maximum per phase, on screen or as CSV.
+ *
+ * Buckets are logarithmic: four per power of two (so values are known to
+ * within 19%), from 1 ns up to the largest long. Phases may be recorded
+ * from several threads (readback, encoding and writing run in the
+ * background).
+ *
+ */
+
+import java.io.*;
+import java.text.*;
+import java.util.*;
+
+class Profiler
+{
+    // Phases of a frame
+    static final int GOAL      = 0;  // process(): goal point, flow field
+    static final int FORCES    = 1;  // process(): accelerations/integration
+    static final int KEYFRAME  = 2;  // process(): keyframing critters
+    static final int CRITTERS  = 3;  // drawing critters
+    static final int OBSTACLES = 4;  // drawing obstacles
+    static final int HUD       = 5;  // drawing text
+    static final int FRAME     = 6;  // all of Scene.draw
+    static final int READBACK  = 7;  // getting pixels of a dumped frame
+    static final int ENCODE    = 8;  // encoding a dumped frame
+    static final int WRITE     = 9;  // writing a dumped frame
+    static final int GROUND    = 10; // drawing the ground
+
+    static final String[] names = {
+        "goal", "forces", "keyframe", "critters", "obstacles", "hud",
+        "frame", "readback", "encode", "write", "ground"
+    };
+
+    // Sub-buckets per power of two (as a number of bits)
+    static final int subBits = 2;
+    static final int numBuckets = 64 << subBits;
+
+    // Histograms (one row per phase), and count/maximum per phase
+    private long[][] counts = new long[names.length][numBuckets];
+    private long[] total = new long[names.length];
+    private long[] max = new long[names.length];
+
+    // ---------------------------------------------------------------
+
+    // Record a span starting at start (a System.nanoTime reading) and
+    // ending now
+    public void end(int phase, long start)
+    {
+        record(phase, System.nanoTime() - start);
+    }
+
+    // Record a span of the given length (in nanoseconds)
+    public synchronized void record(int phase, long nanos)
+    {
+        if (nanos < 0)
+            nanos = 0;
+
+        counts[phase][bucket(nanos)]++;
+        total[phase]++;
+        if (nanos > max[phase])
+            max[phase] = nanos;
+    }
+
+    // Forget everything recorded
+    public synchronized void reset()
+    {
+        for (int i = 0; i < names.length; i++) {
+            Arrays.fill(counts[i], 0);
+            total[i] = 0;
+            max[i] = 0;
+        }
+    }
+
+    // Number of spans recorded for a phase
+    public synchronized long count(int phase)
+    {
+        return total[phase];
+    }
+
+    // Value (in nanoseconds) below which fraction p of the spans of a
+    // phase are (0 if none were recorded)
+    public synchronized long percentile(int phase, double p)
+    {
+        long rank = (long)Math.ceil(p * total[phase]);
+        long seen = 0;
+
+        if (total[phase] == 0)
+            return 0;
+
+        for (int b = 0; b < numBuckets; b++) {
+            seen += counts[phase][b];
+            if (seen >= Math.max(1, rank)) {
+                // Middle of bucket, but never more than the maximum
+                long mid = lowest(b) + (lowest(b+1) - lowest(b)) / 2;
+                return Math.min(mid, max[phase]);
+            }
+        }
+
+        return max[phase];
+    }
+
+    // Largest span recorded for a phase
+    public synchronized long max(int phase)
+    {
+        return max[phase];
+    }
+
+    // ---------------------------------------------------------------
+
+    // One line per phase that has been recorded: name, p50, p99, max
+    // (in milliseconds)
+    public String[] summary()
+    {
+        DecimalFormat ms = new DecimalFormat("0.00");
+        Vector<String> lines = new Vector<String>();
+
+        for (int i = 0; i < names.length; i++) {
+            if (count(i) == 0)
+                continue;
+
+            lines.add(names[i] + ": " +
+                      ms.format(percentile(i, 0.5) / 1e6) + " / " +
+                      ms.format(percentile(i, 0.99) / 1e6) + " / " +
+                      ms.format(max(i) / 1e6) + " ms");
+        }
+
+        return lines.toArray(new String[lines.size()]);
+    }
+
+    // Write all phases as CSV (times in milliseconds)
+    public void writeCSV(String fileName) throws IOException
+    {
+        PrintWriter out = new PrintWriter(new FileWriter(fileName));
+
+        out.println("phase,count,p50_ms,p99_ms,max_ms");
+        for (int i = 0; i < names.length; i++) {
+            out.println(names[i] + "," + count(i) + "," +
+                        percentile(i, 0.5) / 1e6 + "," +
+                        percentile(i, 0.99) / 1e6 + "," +
+                        max(i) / 1e6);
+        }
+
+        out.close();
+        if (out.checkError())
+            throw new IOException("Error writing " + fileName);
+    }
+
+    // ---------------------------------------------------------------
+
+    // Bucket holding value v: values below 2^(subBits+1) have their own
+    // bucket, larger ones are split by bit length and the subBits bits
+    // after the leading one
+    static int bucket(long v)
+    {
+        int bits = 64 - Long.numberOfLeadingZeros(v);
+
+        if (bits <= subBits + 1)
+            return (int)v;
+
+        int sub = (int)(v >>> (bits - 1 - subBits)) & ((1 << subBits) - 1);
+        return ((bits - subBits) << subBits) + sub;
+    }
+
+    // Smallest value in bucket b
+    static long lowest(int b)
+    {
+        if (b < (2 << subBits))
+            return b;
+
+        int bits = (b >> subBits) + subBits;
+        int sub = b & ((1 << subBits) - 1);
+
+        // (no positive long has 64 bits)
+        if (bits >= 64)
+            return Long.MAX_VALUE;
+
+        return ((long)((1 << subBits) + sub)) << (bits - 1 - subBits);
+    }
+}
@@ -0,0 +1,119 @@
+/* class QualityGovernor
+ * Keeps the frame time near a budget (e.g. 20 ms for 50 fps) by stepping
+ * the scene's quality down when frames take too long, and back up when
+ * there is plenty of time to spare. Each step changes several knobs at
+ * once: tessellation detail, the smallest leaf drawn, the distance up to
+ * which critters are animated, and the number of simulation substeps.
+ *
+ * To avoid flip-flopping, a change needs a whole window of slow (or
+ * fast) frames, going up needs much more headroom than going down
+ * leaves, and after any change the governor waits a window before
+ * looking again.
+ *
+ */
+
+class QualityGovernor
+{
+    // Quality levels, best first:
+    //   detail scale, leaf pixels, animation distance, max substeps
+    static final double[][] levels = {
+        { 1.0,  0, Double.POSITIVE_INFINITY, Integer.MAX_VALUE },
+        { 0.6,  0.5, 60, 8 },
+        { 0.4,  1,   40, 4 },
+        { 0.25, 1.5, 25, 2 },
+        { 0.15, 2,   15, 1 }
+    };
+
+    // Frames averaged before deciding, and frames to wait after a change
+    static final int window = 30;
+
+    // Step down when frames take more than this fraction of the budget,
+    // step up when they take less than this one
+    static final double slowFraction = 1.1;
+    static final double fastFraction = 0.5;
+
+    // Frame time budget (nanoseconds)
+    long budget;
+
+    // Current level (index into levels)
+    private int level = 0;
+
+    // Sums over the current window, and number of frames in it
+    private long intervalSum = 0, workSum = 0;
+    private int count = 0;
+
+    // Frames left before looking again after a change
+    private int cooldown = 0;
+
+    // ---------------------------------------------------------------
+
+    public QualityGovernor(double budgetMillis)
+    {
+        budget = (long)(budgetMillis * 1e6);
+    }
+
+    // Current level (0 is best)
+    public int getLevel()
+    {
+        return level;
+    }
+
+    // Account for one frame: interval is the time since the last frame
+    // started, work the time spent producing this one (the interval can't
+    // show spare time when the animator runs at a fixed rate). Returns
+    // whether the level changed.
+    public boolean frame(long interval, long work)
+    {
+        if (cooldown > 0) {
+            cooldown--;
+            return false;
+        }
+
+        intervalSum += interval;
+        workSum += work;
+        count++;
+
+        if (count < window)
+            return false;
+
+        long meanInterval = intervalSum / count, meanWork = workSum / count;
+        int old = level;
+
+        if (meanInterval > slowFraction * budget && level < levels.length-1) {
+            level++;
+        } else if (meanWork < fastFraction * budget && level > 0) {
+            level--;
+        }
+
+        intervalSum = 0;
+        workSum = 0;
+        count = 0;
+
+        if (level != old) {
+            cooldown = window;
+            return true;
+        }
+        return false;
+    }
+
+    // Go back to best quality
+    public void reset()
+    {
+        level = 0;
+        intervalSum = 0;
+        workSum = 0;
+        count = 0;
+        cooldown = 0;
+    }
+
+    // Set the scene's knobs for the current level
+    public void apply(Scene s)
+    {
+        double[] l = levels[level];
+
+        s.frustum.detail = l[0];
+        s.frustum.leafPixels = l[1];
+        s.animationDistance = l[2];
+        s.maxSubsteps = (int)Math.min(l[3], Integer.MAX_VALUE);
+    }
+}
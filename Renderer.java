@@ -0,0 +1,107 @@
+/* interface Renderer
+ * The drawing operations used by the scene (a small subset of
+ * fixed-function OpenGL), so that the scene can be drawn either through
+ * OpenGL (GLRenderer) or without any GL at all (SoftwareRenderer)
+ *
+ */
+
+import javax.media.opengl.GL;
+
+public interface Renderer
+{
+    // Primitive types for begin() (same values as in OpenGL)
+    static final int TRIANGLES  = GL.GL_TRIANGLES;
+    static final int QUADS      = GL.GL_QUADS;
+    static final int QUAD_STRIP = GL.GL_QUAD_STRIP;
+    static final int POLYGON    = GL.GL_POLYGON;
+
+    // Capabilities for enable()/disable()
+    static final int LIGHTING       = GL.GL_LIGHTING;
+    static final int LIGHT0         = GL.GL_LIGHT0;
+    static final int DEPTH_TEST     = GL.GL_DEPTH_TEST;
+    static final int COLOR_MATERIAL = GL.GL_COLOR_MATERIAL;
+    static final int CLIP_PLANE0    = GL.GL_CLIP_PLANE0;
+
+    // Material and light parameters
+    static final int AMBIENT   = GL.GL_AMBIENT;
+    static final int DIFFUSE   = GL.GL_DIFFUSE;
+    static final int SPECULAR  = GL.GL_SPECULAR;
+    static final int SHININESS = GL.GL_SHININESS;
+    static final int POSITION  = GL.GL_POSITION;
+
+    // ---------------------------------------------------------------
+    // Modelview matrix
+
+    abstract void loadIdentity();
+    abstract void pushMatrix();
+    abstract void popMatrix();
+    abstract void translate(double x, double y, double z);
+    abstract void rotate(double angle, double x, double y, double z);
+    abstract void scale(double x, double y, double z);
+
+    // Get current projection and modelview matrices (column-major)
+    abstract void getMatrices(double[] proj, double[] model);
+
+    // Get viewport (x, y, width, height) in pixels
+    abstract void getViewport(int[] viewport);
+
+    // ---------------------------------------------------------------
+    // State
+
+    abstract void enable(int cap);
+    abstract void disable(int cap);
+
+    // Current color (which is also the diffuse material color)
+    abstract void color(double r, double g, double b);
+    abstract void getColor(double[] c);
+
+    // Material (front and back) and light (light 0) parameters
+    abstract void material(int pname, float[] v);
+    abstract void material(int pname, float v);
+    abstract void light(int pname, float[] v);
+
+    // Clip plane 0, in current (modelview) coordinates
+    abstract void clipPlane(double[] eq);
+
+    // ---------------------------------------------------------------
+    // Geometry
+
+    abstract void begin(int mode);
+    abstract void normal(double x, double y, double z);
+    abstract void vertex(double x, double y, double z);
+    abstract void end();
+
+    // Display lists (compiled, not executed, between newList and endList)
+    abstract int genLists(int n);
+    abstract void newList(int list);
+    abstract void endList();
+    abstract void callList(int list);
+
+    // ---------------------------------------------------------------
+    // Textures (RGBA; textured triangles take their color from the
+    // texture instead of lighting, and texels with alpha below 0.5 are
+    // not drawn)
+
+    // New texture of w x h texels, all transparent
+    abstract int genTexture(int w, int h);
+
+    // Draw into the w x h texels at (x,y) of texture tex (cleared first)
+    // instead of the screen, through an orthographic projection of the
+    // box l..r, b..t, n..f (as glOrtho) and from an identity modelview;
+    // endTexture goes back to drawing the screen as before
+    abstract void beginTexture(int tex, int x, int y, int w, int h,
+                               double l, double r, double b, double t,
+                               double n, double f);
+    abstract void endTexture();
+
+    // Texture for the following triangles (0 for none), and texture
+    // coordinates of the following vertices
+    abstract void bindTexture(int tex);
+    abstract void texCoord(double s, double t);
+
+    // ---------------------------------------------------------------
+
+    // Draw text on top of the scene at (x,y) in [0,1] x [0,1] window
+    // coordinates (origin in lower left), in the current color
+    abstract void text(double x, double y, String s);
+}
@@ -7,7 +7,6 @@
 
 import java.util.*;
 
-import javax.media.opengl.GL;
 import javax.vecmath.*;
 
 class Rock implements Obstacle
@@ -26,6 +25,9 @@ class Rock implements Obstacle
     // Random number generator
     Random rgen;
 
+    // Bounding sphere of rock (computed with the geometry)
+    private Bounds bounds = new Bounds();
+
     // ---------------------------------------------------------------
 
     public Rock(Random randGen, int level, 
@@ -57,17 +59,29 @@ class Rock implements Obstacle
 	return new Point3d(xpos, ypos, 0);
     }
 
+    // Footprint of rock (circle inside its scaled unit square)
+    public double getRadius()
+    {
+	return 0.5 * scale;
+    }
+
+    // Get bounding sphere of rock
+    public Bounds getBounds()
+    {
+	return bounds;
+    }
+
     // Draw rock in scene
-    public void draw(GL gl)
+    public void draw(Renderer r, Frustum frustum)
     {
-	gl.glPushMatrix();
+	r.pushMatrix();
 
         // Translate rock down (so it has an interesting boundary)
-	gl.glTranslated(xpos, ypos, -0.15);
+	r.translate(xpos, ypos, -0.15);
 
-	gl.glScaled(scale, scale, scale);
+	r.scale(scale, scale, scale);
 
-        gl.glColor3d(0.6, 0.6, 0.6);
+        r.color(0.6, 0.6, 0.6);
 
         // Create these outside the loops, so objects persist and
         // unnecessary GC is avoided
@@ -76,26 +90,26 @@ class Rock implements Obstacle
 
         // Draw polygon grid of rock as quad-strips
         for (int i = 0; i < rsize-1; i++) {
-            gl.glBegin(GL.GL_QUAD_STRIP);
+            r.begin(Renderer.QUAD_STRIP);
             for (int j = 0; j < rsize; j++) {
                 getRockPoint(i, j, p);
                 getRockNormal(i, j, n);
-                gl.glNormal3d(n.x, n.y, n.z);
-                gl.glVertex3d(p.x, p.y, p.z);
+                r.normal(n.x, n.y, n.z);
+                r.vertex(p.x, p.y, p.z);
                 
                 getRockPoint(i+1, j, p);
                 getRockNormal(i+1, j, n);
-                gl.glNormal3d(n.x, n.y, n.z);
-                gl.glVertex3d(p.x, p.y, p.z);
+                r.normal(n.x, n.y, n.z);
+                r.vertex(p.x, p.y, p.z);
             }
-            gl.glEnd();
+            r.end();
         }
 
         // Make GC easy
         p = null;
         n = null;
     
-	gl.glPopMatrix();
+	r.popMatrix();
     }
     
     // ---------------------------------------------------------------
@@ -154,7 +168,16 @@ class Rock implements Obstacle
 
         // Recursively compute fractal structure
 	computeFractal(0, rsize-1, 0, rsize-1, 1);
-	
+
+        // Bounding sphere around the (scaled, lowered) height field
+        double top = 0;
+        for (int i = 0; i < rsize; i++) {
+            for (int j = 0; j < rsize; j++) {
+                top = Math.max(top, height[i][j]);
+            }
+        }
+        bounds.set(xpos, ypos, -0.15 + scale * top / 2,
+                   scale * Math.sqrt(0.5 + top * top / 4));
     }
 
     // Recursively compute fractal rock geometry
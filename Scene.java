@@ -4,15 +4,15 @@
  *
  */
 
+import java.io.*;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
 import java.awt.Point;
 import java.text.*;
 
-import javax.media.opengl.GL;
 import javax.vecmath.*;
 
-import com.sun.opengl.util.GLUT;
-
 public class Scene
 {
     // Parameters for specifying V; the 3D view
@@ -21,20 +21,62 @@ public class Scene
 
     // Parameters for display options
     private Vector<BooleanParameter> options;
-    private BooleanParameter drawTime;
+    private BooleanParameter drawTime, cullView, drawProfile, adaptQuality;
     public  BooleanParameter drawAnimation, drawBugView;
 
+    // Parameters for generating the scene (a change only makes again the
+    // elements that depend on it)
+    private Vector<DoubleParameter> genParams;
+    private DoubleParameter treeDepth, treeBranches, rockDetail, numBugs;
+
+    // Current values of all parameters/options, and the values used for
+    // the frame being drawn (taken once at the start of draw)
+    ParameterStore store = new ParameterStore();
+    private ParameterStore.Snapshot values;
+
     // ------------
 
     // Elements of the scene
     Vector<Critter> critters;
     Vector<Obstacle> obstacles;
+
+    // The same elements with what they were made from (critters,
+    // obstacles and mainBug are copied from here when swapped in)
+    private SceneContents contents;
+
+    // Background building: whether a build has been asked for or is
+    // running, contents finished but not yet swapped in, and progress
+    private volatile boolean buildRequested = false, building = false;
+    private AtomicReference<SceneContents> finished =
+        new AtomicReference<SceneContents>();
+    private AtomicInteger buildDone = new AtomicInteger();
+    private AtomicInteger buildTotal = new AtomicInteger();
+
+    // Thread running background builds, and threads making the
+    // elements of any build (shared by all scenes)
+    static ExecutorService builders = Executors.newSingleThreadExecutor(
+        new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "build");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    static ExecutorService generators = Executors.newFixedThreadPool(
+        Runtime.getRuntime().availableProcessors(),
+        new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "generate");
+                t.setDaemon(true);
+                return t;
+            }
+        });
     
     // Main character in scene (a reference to a bug stored in critters) */
     Bug mainBug;
     
-    // Random number generator
-    Random rgen;
+    // Random number generator (its state is saved in snapshots)
+    StateRandom rgen;
 
     // Clock reading at last computation
     double computeClock = 0;
@@ -51,17 +93,75 @@ public class Scene
     // File prefix used for file dumping (null if not dumping images)
     String dumpPrefix;
 
+    // Contents of a generated stress scene (null for the standard scene)
+    SceneSpec spec;
+
     // Center of the world
     Point3d origin = new Point3d(0,0,0);
 
-    static double x = 5, y = 5, resetTime = 0;
+    // Point the critters are attracted to, and time it last moved
+    double x = 5, y = 5, resetTime = 0;
+
+    // Directions to that point around obstacles
+    FlowField flow = new FlowField();
+
+    // Flat stand-ins for distant trees and bugs
+    Impostors impostors = new Impostors();
+
+    // Ground (tiles made in the background around the eye and main bug)
+    Terrain terrain;
+
+    // View volume of the current frame (for skipping hidden objects,
+    // and level of detail)
+    Frustum frustum = new Frustum();
+
+    // Seconds of critter motion per second of (scene) clock. The
+    // original stepping moved critters by the whole frame time on each
+    // of its steps, two per frame at 30 fps, so they have always moved
+    // at twice the clock; kept so they go as fast as they always did.
+    static final double motionRate = 2;
+
+    // Quality knobs set by the governor: critters further away than
+    // animationDistance are not keyframed, and process() takes at most
+    // maxSubsteps steps per frame
+    double animationDistance = Double.POSITIVE_INFINITY;
+    int maxSubsteps = Integer.MAX_VALUE;
+
+    // Adjusts quality to keep frames within 20 ms (50 fps)
+    QualityGovernor governor = new QualityGovernor(20);
+
+    // Number of critters and obstacles drawn and culled in last frame
+    int numDrawn, numCulled;
+
+    // Time spent in each phase of a frame
+    Profiler profiler = new Profiler();
+
+    // File critter state is published to every frame (null if none)
+    CritterStateFile stateFile;
+
+    // Snapshots of the simulation, for seeking (null if none are kept)
+    Checkpoints checkpoints;
+
+    // Log critters are recorded to every frame, and log they are played
+    // back from instead of simulating them (null if none)
+    TrajectoryRecorder recorder;
+    TrajectoryPlayer player;
     //-----------------------------------------------------------------------
 
     // Default constructor for scene
     public Scene(long seedVal, boolean niceVal, double clockSpeedVal, 
                  String dumpPrefixVal)
+    {
+        this(seedVal, niceVal, clockSpeedVal, dumpPrefixVal, null);
+    }
+
+    // Constructor for scene with the given contents (null for the
+    // standard scene)
+    public Scene(long seedVal, boolean niceVal, double clockSpeedVal, 
+                 String dumpPrefixVal, SceneSpec specVal)
     {
         seed = seedVal;
+        spec = specVal;
         nice = niceVal;
         clockSpeed = clockSpeedVal;
         dumpPrefix = dumpPrefixVal;
@@ -84,6 +184,34 @@ public class Scene
                                                        1));
         drawBugView   = addOption(new BooleanParameter("Bug camera view", 
                                                        false, 1));
+        cullView      = addOption(new BooleanParameter("Frustum culling",
+                                                       true, 1));
+        drawProfile   = addOption(new BooleanParameter("Show profile",
+                                                       false, 1));
+        adaptQuality  = addOption(new BooleanParameter("Adaptive quality",
+                                                       dumpPrefix == null,
+                                                       1));
+
+        genParams = new Vector<DoubleParameter>();
+
+        int depth = nice ? 5 : 4, bugCount = 1;
+        if (spec != null) {
+            depth = spec.treeDepth;
+            bugCount = spec.bugs;
+        }
+        treeDepth    = addGenParameter(new DoubleParameter("Tree depth",
+                                                           depth, 1, 6,
+                                                           1, "0"));
+        treeBranches = addGenParameter(new DoubleParameter("Tree branches",
+                                                           7, 2, 10,
+                                                           1, "0"));
+        rockDetail   = addGenParameter(new DoubleParameter("Rock detail",
+                                                           0, -2, 3,
+                                                           1, "0"));
+        numBugs      = addGenParameter(new DoubleParameter("Bugs",
+                                                           bugCount, 1,
+                                                           Math.max(20, bugCount),
+                                                           1, "0"));
 
         build();
     }
@@ -93,20 +221,32 @@ public class Scene
     // Keep track of list of all scene parameters/drawing options
     public DoubleParameter addParameter(DoubleParameter p)
     {
+        p.attach(store);
         params.add(p);
         return p;
     }
     public BooleanParameter addOption(BooleanParameter p)
     {
+        p.attach(store);
         options.add(p);
         return p;
     }
+    public DoubleParameter addGenParameter(DoubleParameter p)
+    {
+        p.attach(store);
+        genParams.add(p);
+        return p;
+    }
 
     // Accessors for parameters/options
     public Vector getParams()
     {
         return params;
     }
+    public Vector<DoubleParameter> getGenParams()
+    {
+        return genParams;
+    }
     public Vector getOptions()
     {
         return options;
@@ -126,6 +266,11 @@ public class Scene
         while (i.hasNext()) {
             ((Parameter)i.next()).reset();
         }
+
+        i = genParams.iterator(); 
+        while (i.hasNext()) {
+            ((Parameter)i.next()).reset();
+        }
     }
 
     // -----------------------------------------------------------------
@@ -157,6 +302,7 @@ public class Scene
     public void setFrameByFrameClock()
     {
 	frameByFrameClock = true;
+	terrain.synchronous = true;
     }
 
     // Record starting time of program and frame number
@@ -192,7 +338,7 @@ public class Scene
 	} else {
 	    long elapsed;
 	    
-	    if (drawAnimation.value) {
+	    if (drawAnimation.get()) {
 		// Time during animation
 		elapsed = System.currentTimeMillis() - startTime;
 	    } else {
@@ -206,61 +352,367 @@ public class Scene
 
     // ----------------------------------------------------------------------
 
-    // Build the contents of the scene
+    // Build the contents of the scene from scratch (every element made
+    // again, simulation started over), and wait for them
     // (no OpenGL calls are allowed in here, as it hasn't been
     //  initialized yet)
     public void build()
     {
-	Point3d loc;
-
-	computeFPS(0);
-
-	// Make random number generator
+	// Pick a seed (used by the simulation; elements have seeds of
+	// their own mixed from it)
 	if (seed == -1) {
 	    seed = System.currentTimeMillis() % 10000;
 	    System.out.println("Seed value: " + seed);
 	}
-	rgen = new Random(seed);
 
-	// Create empty scene
-	obstacles = new Vector<Obstacle>();
-	critters = new Vector<Critter>();
+	// (the ground depends on the seed too, so it waits until the seed
+	// is known, and is kept as long as the seed stays the same)
+	if (terrain == null)
+	    terrain = new Terrain(seed);
 
-	// ---------------
+	install(make(null, store.snapshot()));
+    }
+
+    // Ask for a build from scratch, made in the background (for threads
+    // other than the one drawing; the current contents are drawn and
+    // animated until it is done)
+    public void requestBuild()
+    {
+	buildRequested = true;
+    }
+
+    // Fraction of the background build done (-1 if none is running, 1
+    // if it is finished but not yet swapped in)
+    public double buildProgress()
+    {
+	if (!building)
+	    return -1;
+	if (finished.get() != null)
+	    return 1;
+
+	int total = buildTotal.get();
+	return (total == 0) ? 0 : (double)buildDone.get() / total;
+    }
 
-        // Create scene elements
+    // Called before each frame: swap in contents finished in the
+    // background, and start a build if one was asked for or generation
+    // parameters changed. With the frame-by-frame clock, builds are made
+    // right away instead (so dumped frames don't depend on timing).
+    private void updateContents(final ParameterStore.Snapshot v)
+    {
+	SceneContents done = finished.getAndSet(null);
+	if (done != null) {
+	    install(done);
+	    building = false;
+	}
 
-        // Create tree (just a stump, for now)
-		if(nice)
-			obstacles.addElement(new Tree(rgen, 5, 7, 2.0f, 0.3f, 0.0f, 0.0f));
-		else
-			obstacles.addElement(new Tree(rgen, 4, 7, 2.0f, 0.3f, 0.0f, 0.0f));
+	if (building || (!buildRequested && isMadeFrom(contents, v)))
+	    return;
 
-        // Create a rock (just a pyramid, for now)
-        obstacles.addElement(new Rock(rgen, 3, 3, 4, 1));
-        obstacles.addElement(new Rock(rgen, 5, -4, 5, 2));
-        obstacles.addElement(new Rock(rgen, 5, -5, -6, 3));
-        obstacles.addElement(new Rock(rgen, 5, 4, -3, 2));
-        obstacles.addElement(new Rock(rgen, 3, -7, 2, 1));
+	final SceneContents prev = buildRequested ? null : contents;
+	buildRequested = false;
 
-        // Create the main bug
-        mainBug = new Bug(rgen, 0.6f,  -1, 1,  0.1f, 0.0f);
-        critters.addElement(mainBug);
+	if (frameByFrameClock) {
+	    install(make(prev, v));
+	    return;
+	}
 
-	// ---------------
+	building = true;
+	builders.execute(new Runnable() {
+		public void run() {
+		    try {
+			finished.set(make(prev, v));
+		    } catch (RuntimeException e) {
+			e.printStackTrace();
+			building = false;
+		    }
+		}
+	    });
+    }
+
+    // Whether contents c were made from the generation parameter values
+    // in v (other parameters don't change what is made; like the
+    // elements, they are compared rounded)
+    private boolean isMadeFrom(SceneContents c, ParameterStore.Snapshot v)
+    {
+	for (int i = 0; i < c.made.length; i++) {
+	    if (Math.round(v.get(genParams.elementAt(i))) != c.made[i])
+		return false;
+	}
+	return true;
+    }
+
+    // Make new contents from the generation parameters in v, starting
+    // from prev (null to make everything): elements that are missing or
+    // whose parameters changed are made, all others are reused (and
+    // their critters keep moving where they are). Doesn't change the
+    // scene, so may run on any thread.
+    private SceneContents make(SceneContents prev, ParameterStore.Snapshot v)
+    {
+	SceneBuildEvent buildEvent = new SceneBuildEvent();
+	buildEvent.begin();
+
+	SceneContents c = new SceneContents();
+	c.fresh = (prev == null);
+	c.made = new long[genParams.size()];
+	for (int i = 0; i < c.made.length; i++) {
+	    c.made[i] = Math.round(v.get(genParams.elementAt(i)));
+	}
+
+	if (prev == null) {
+	    c.trees = new Vector<SceneElement>();
+	    c.rocks = new Vector<SceneElement>();
+	    c.bugs = new Vector<SceneElement>();
+	} else {
+	    c.trees = new Vector<SceneElement>(prev.trees);
+	    c.rocks = new Vector<SceneElement>(prev.rocks);
+	    c.bugs = new Vector<SceneElement>(prev.bugs);
+	}
+
+	// Standard scene has one tree and the rocks in rockTable
+	int numTrees = 1, numRocks = rockTable.length;
+	if (spec != null) {
+	    numTrees = spec.trees;
+	    numRocks = spec.rocks;
+	}
+
+	// Find what has to be made, then make it
+	buildDone.set(0);
+	buildTotal.set(update(c.trees, numTrees, TREE, v) +
+		       update(c.rocks, numRocks, ROCK, v) +
+		       update(c.bugs, (int)Math.round(v.get(numBugs)), BUG, v));
+
+	// (each element has its own seed, so they can be made at the same
+	// time and still come out the same)
+	Vector<CompletableFuture<Void>> making =
+	    new Vector<CompletableFuture<Void>>();
+
+	generate(c.trees, TREE, v, making);
+	generate(c.rocks, ROCK, v, making);
+	generate(c.bugs, BUG, v, making);
+
+	try {
+	    CompletableFuture.allOf(making.toArray(
+		new CompletableFuture<?>[making.size()])).join();
+	} catch (CompletionException e) {
+	    throw new RuntimeException("Error making scene", e.getCause());
+	}
+
+	// Put together the element lists
+	c.obstacles = new Vector<Obstacle>();
+	c.critters = new Vector<Critter>();
+
+	for (SceneElement e : c.trees) {
+	    c.obstacles.addElement((Obstacle)e.element);
+	}
+	for (SceneElement e : c.rocks) {
+	    c.obstacles.addElement((Obstacle)e.element);
+	}
+	for (SceneElement e : c.bugs) {
+	    c.critters.addElement((Critter)e.element);
+	}
+	c.mainBug = (Bug)c.critters.elementAt(0);
+
+	buildEvent.seed = seed;
+	buildEvent.obstacles = c.obstacles.size();
+	buildEvent.critters = c.critters.size();
+	buildEvent.commit();
+
+	return c;
+    }
+
+    // Make contents c the ones drawn and simulated (on the drawing
+    // thread only)
+    private void install(SceneContents c)
+    {
+	contents = c;
+	obstacles = c.obstacles;
+	critters = c.critters;
+	mainBug = c.mainBug;
+
+	if (c.fresh) {
+	    // Start simulation over (so the animation only depends on
+	    // the seed)
+	    rgen = new StateRandom(seed);
+	    x = 5;
+	    y = 5;
+	    resetTime = 0;
+
+	    resetClock();
+	    computeFPS(0);
+	}
+    }
+
+    // Make list hold n elements of a kind (dropping or adding at the
+    // end), putting new (not yet made) elements in place of those not
+    // made with the values in v; returns the number of those
+    private int update(Vector<SceneElement> list, int n, int kind,
+                       ParameterStore.Snapshot v)
+    {
+	int stale = 0;
+
+	while (list.size() > n) {
+	    list.removeElementAt(list.size() - 1);
+	}
+	for (int i = 0; i < n; i++) {
+	    if (i == list.size()) {
+		list.addElement(element(kind, i));
+		stale++;
+	    } else if (!list.elementAt(i).isCurrent(v)) {
+		// (elements are never changed once made, as older contents
+		// may still be using them)
+		list.setElementAt(element(kind, i), i);
+		stale++;
+	    }
+	}
+
+	return stale;
+    }
+
+    // Start making the elements of list that haven't been made yet
+    // (on the generator threads), adding them to making
+    private void generate(Vector<SceneElement> list, final int kind,
+                          final ParameterStore.Snapshot v,
+                          Vector<CompletableFuture<Void>> making)
+    {
+	for (final SceneElement e : list) {
+	    if (e.element != null)
+		continue;
+
+	    making.addElement(CompletableFuture.runAsync(new Runnable() {
+		    public void run() {
+			ObstacleBuildEvent event = beginBuild();
+			e.generate(v);
+			endBuild(event, kindNames[kind]);
+			buildDone.incrementAndGet();
+		    }
+		}, generators));
+	}
+    }
 
-	// Reset computation clock
-	computeClock = 0;
+    // Kinds of scene elements
+    static final int TREE = 0, ROCK = 1, BUG = 2;
+    static final String[] kindNames = { "Tree", "Rock", "Bug" };
+
+    // Rocks in the standard scene: level, x, y, scale
+    static final double[][] rockTable = {
+        { 3,  3,  4, 1 },
+        { 5, -4,  5, 2 },
+        { 5, -5, -6, 3 },
+        { 5,  4, -3, 2 },
+        { 3, -7,  2, 1 }
+    };
+
+    // How to make element number i of a kind, and which generation
+    // parameters it depends on. In stress scenes (spec) trees and rocks
+    // go to random spots on the ground, away from the center.
+    private SceneElement element(int kind, final int i)
+    {
+	long s = elementSeed(kind, i);
+
+	switch (kind) {
+	case TREE:
+	    return new SceneElement(s, new DoubleParameter[] { treeDepth,
+							       treeBranches }) {
+		    Object make(Random r, ParameterStore.Snapshot v) {
+			int depth = (int)Math.round(v.get(treeDepth));
+			int branches = (int)Math.round(v.get(treeBranches));
+			Point3d p = (spec != null) ? groundSpot(r) : origin;
+
+			return new Tree(r, depth, branches, 2.0f, 0.3f, p.x, p.y);
+		    }
+		};
+
+	case ROCK:
+	    return new SceneElement(s, new DoubleParameter[] { rockDetail }) {
+		    Object make(Random r, ParameterStore.Snapshot v) {
+			int detail = (int)Math.round(v.get(rockDetail));
+
+			if (spec != null) {
+			    Point3d p = groundSpot(r);
+			    double scale = 1 + r.nextInt(3);
+
+			    return new Rock(r, rockLevel(spec.rockLevel + detail),
+					    p.x, p.y, scale);
+			}
+
+			double[] t = rockTable[i];
+			return new Rock(r, rockLevel((int)t[0] + detail),
+					t[1], t[2], t[3]);
+		    }
+		};
+
+	default:
+	    return new SceneElement(s, new DoubleParameter[0]) {
+		    Object make(Random r, ParameterStore.Snapshot v) {
+			// Main bug of the standard scene starts at a fixed
+			// spot, others anywhere around the center
+			if (i == 0 && spec == null)
+			    return new Bug(r, 0.6f,  -1, 1,  0.1f, 0.0f);
+
+			return new Bug(r, 0.6f,
+				       r.nextGaussian() * 2, r.nextGaussian() * 2,
+				       0.1f, 0.0f);
+		    }
+		};
+	}
+    }
+
+    // Seed for element number i of a kind (mixed from the scene seed, so
+    // nearby elements get unrelated random numbers)
+    private long elementSeed(int kind, int i)
+    {
+	long h = seed * 0x9E3779B97F4A7C15L + (kind * 1000003L + i);
+
+	h = (h ^ (h >>> 30)) * 0xBF58476D1CE4E5B9L;
+	h = (h ^ (h >>> 27)) * 0x94D049BB133111EBL;
+	return h ^ (h >>> 31);
+    }
+
+    // Keep rock subdivision level in a sensible range
+    private static int rockLevel(int level)
+    {
+	return Math.max(1, Math.min(9, level));
+    }
+
+    // Random point on the ground between 3 and 14 from the center
+    private Point3d groundSpot(Random r)
+    {
+	double d = 3 + 11 * Math.sqrt(r.nextDouble());
+	double theta = 2 * Math.PI * r.nextDouble();
+
+	return new Point3d(d * Math.cos(theta), d * Math.sin(theta), 0);
+    }
+
+    // Start/finish timing the generation of one scene element (for
+    // Flight Recorder)
+    private ObstacleBuildEvent beginBuild()
+    {
+	ObstacleBuildEvent event = new ObstacleBuildEvent();
+	event.begin();
+	return event;
+    }
+    private void endBuild(ObstacleBuildEvent event, String kind)
+    {
+	event.kind = kind;
+	event.commit();
     }
 
     // Perform computation for critter movement so they are updated to
     // the current time
     public void process()
     {
+	// Keep a snapshot every so often (only with the frame-by-frame
+	// clock, where frame numbers say where the simulation is)
+	if (checkpoints != null && frameByFrameClock)
+	    checkpoints.offer(frameNumber, this);
+
         // Get current time
 	double t = readClock() * clockSpeed;
 	double dTime = t - computeClock;
-	double dtMax = 1/50.0f;
+	// (collisions with obstacles are swept, so steps only need to be
+	// small enough for the forces to stay stable)
+	double dtMax = 1/30.0f;
 
 	// Set current time on display
 	computeClock = t;
@@ -269,17 +721,30 @@ public class Scene
         if (dTime <= 0)
           return;
 
+        SimulationStepEvent event = new SimulationStepEvent();
+        event.begin();
+
 
 	// ---------------
 
 	// Compute accelerations, then integrate (using Critter methods)
 
-        // This part advances the simulation forward by dTime seconds, but
-        // using steps that are no larger than dtMax (this means it takes
-        // more than one step when dTime > dtMax -- the number of steps
-        // we need is stored in numSteps).
-
-        int numSteps = (int)Math.round(dTime/dtMax);
+        // This part advances the critters by motionRate * dTime seconds,
+        // but using steps that are no larger than dtMax (this means it
+        // takes more than one step when that is more than dtMax -- the
+        // number of steps we need is stored in numSteps).
+
+        double moveTime = motionRate * dTime;
+        int numSteps = Math.max(1, (int)Math.round(moveTime/dtMax));
+
+        // Each step covers an equal share of moveTime; at reduced
+        // quality, take fewer but longer steps (still covering moveTime
+        // in all)
+        double stepTime = moveTime / numSteps;
+        if (numSteps > maxSubsteps) {
+            stepTime = moveTime / maxSubsteps;
+            numSteps = maxSubsteps;
+        }
         
 
         // Here is the rough structure of what we'll need
@@ -293,7 +758,7 @@ public class Scene
         //
         
         Point3d point;
-        
+        long start = System.nanoTime();
         
         if((t-resetTime) > 5){
         	x = rgen.nextGaussian() * 3;
@@ -301,11 +766,26 @@ public class Scene
         	mainBug.vel.set(mainBug.vel.x / 5, mainBug.vel.y / 5, mainBug.vel.z / 5);
         	resetTime = t;
         }
+
+        // Ways around obstacles to the goal (only recomputed when the
+        // goal or the obstacles have changed)
+        flow.update(x, y, obstacles);
+        profiler.end(Profiler.GOAL, start);
         
+        long forces = 0, keyframes = 0;
+        Vector3d flowDir = new Vector3d();
         for(Critter critter:critters){
+        	start = System.nanoTime();
+        	// (critters move on the plane, and are then put on the ground)
+        	critter.pos.z = 0;
 	        for(int i=0; i<numSteps; i++){
 	        	critter.accelReset();
-	        	point = new Point3d(x, y, 0);
+	        	// Head along the flow field (straight for the goal
+	        	// once in its cell)
+	        	if (flow.direction(critter.pos.x, critter.pos.y, flowDir))
+	        		point = new Point3d(critter.pos.x + flowDir.x, critter.pos.y + flowDir.y, 0);
+	        	else
+	        		point = new Point3d(x, y, 0);
 	        	critter.accelAttract(point, 0.4, 0.1);
 	        	
 	        	Vector3d dir;
@@ -331,146 +811,394 @@ public class Scene
 	        	point = null;
 	        	dir = null;
 	        	
-	        	critter.integrate(dTime);
+	        	critter.integrate(stepTime, obstacles);
 	        }
+	        critter.pos.z = terrain.height(critter.pos.x, critter.pos.y);
+	        long mid = System.nanoTime();
+	        forces += mid - start;
 	        
-			// Keyframe motion for each critter
-	        critter.keyframe(critter.distTraveled());
+			// Keyframe motion for each critter (unless too far away
+			// to see it, at reduced quality)
+	        if (frustum.depth(critter.pos) <= animationDistance)
+	        	critter.keyframe(critter.distTraveled());
+	        keyframes += System.nanoTime() - mid;
 	        
         }
+        profiler.record(Profiler.FORCES, forces);
+        profiler.record(Profiler.KEYFRAME, keyframes);
+
+        event.critters = critters.size();
+        event.substeps = numSteps;
+        event.dTime = Math.round(dTime * 1e9);
+        event.commit();
         
     }
 
+    // Add this frame's critters to the recorded run (recording stops
+    // if the log can't be written)
+    private void record()
+    {
+        if (recorder == null)
+            return;
+
+        try {
+            recorder.record(critters, computeClock);
+        } catch (IOException e) {
+            System.out.println("Error recording trajectories: " + e);
+            recorder = null;
+        }
+    }
+
+    // Take critters from the recorded run (frame by frame with the
+    // frame-by-frame clock, otherwise by time)
+    private void replay()
+    {
+        double t = readClock() * clockSpeed;
+        int frame = frameByFrameClock ? frameNumber : player.frameAt(t);
+
+        computeClock = player.apply(frame, critters);
+    }
+
+    // -----------------------------------------------------------------
+    // -- Snapshots
+
+    static final int STATE_MAGIC = 0x534E4150;
+    static final int STATE_VERSION = 3;
+
+    // Everything the simulation depends on, as bytes: what scene it is
+    // (see writeScene), frame number, clock, goal point, random number
+    // generator state, and the state of every critter. Restoring it and simulating on gives exactly
+    // the same frames as simulating from the start. (Quality governor
+    // settings are not included; it is off when dumping.)
+    public byte[] saveState()
+    {
+	ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+	DataOutputStream out = new DataOutputStream(bytes);
+
+	try {
+	    out.writeInt(STATE_MAGIC);
+	    out.writeInt(STATE_VERSION);
+	    writeScene(out);
+	    out.writeInt(frameNumber);
+	    out.writeDouble(computeClock);
+	    out.writeDouble(x);
+	    out.writeDouble(y);
+	    out.writeDouble(resetTime);
+	    rgen.writeState(out);
+
+	    out.writeInt(critters.size());
+	    for (Critter c : critters) {
+		c.writeState(out);
+	    }
+	    out.close();
+	} catch (IOException e) {
+	    // (can't happen writing to memory)
+	    throw new RuntimeException(e);
+	}
+
+	return bytes.toByteArray();
+    }
+
+    // What the simulation is of: seed, clock speed, quality, stress
+    // scene contents, and the (rounded) generation parameter values the
+    // current contents were made from
+    private void writeScene(DataOutput out) throws IOException
+    {
+	out.writeLong(seed);
+	out.writeDouble(clockSpeed);
+	out.writeBoolean(nice);
+
+	out.writeBoolean(spec != null);
+	if (spec != null) {
+	    out.writeInt(spec.bugs);
+	    out.writeInt(spec.rocks);
+	    out.writeInt(spec.rockLevel);
+	    out.writeInt(spec.trees);
+	    out.writeInt(spec.treeDepth);
+	}
+
+	out.writeInt(contents.made.length);
+	for (long v : contents.made) {
+	    out.writeLong(v);
+	}
+    }
+
+    // Put the simulation back as it was when state was saved (the scene
+    // must be the same in everything writeScene writes)
+    public void restoreState(byte[] state) throws IOException
+    {
+	DataInputStream in =
+	    new DataInputStream(new ByteArrayInputStream(state));
+
+	if (in.readInt() != STATE_MAGIC || in.readInt() != STATE_VERSION)
+	    throw new IOException("Not a scene snapshot");
+
+	ByteArrayOutputStream scene = new ByteArrayOutputStream();
+	writeScene(new DataOutputStream(scene));
+	byte[] expected = scene.toByteArray();
+	byte[] found = new byte[expected.length];
+
+	in.readFully(found);
+	if (!Arrays.equals(found, expected))
+	    throw new IOException("Snapshot is of another scene (seed, " +
+				  "speed, quality or generation parameters " +
+				  "differ)");
+
+	int frame = in.readInt();
+	double clock = in.readDouble();
+	double gx = in.readDouble(), gy = in.readDouble();
+	double reset = in.readDouble();
+
+	StateRandom r = new StateRandom(seed);
+	r.readState(in);
+
+	if (in.readInt() != critters.size())
+	    throw new IOException("Snapshot has a different number of critters");
+	for (Critter c : critters) {
+	    c.readState(in);
+	}
+
+	frameNumber = frame;
+	computeClock = clock;
+	x = gx;
+	y = gy;
+	resetTime = reset;
+	rgen = r;
+    }
+
+    // Bring the simulation to the start of frame (with the frame-by-frame
+    // clock), either from the nearest snapshot before it if that is closer than
+    // where it is now, otherwise simulating on (or over from the start)
+    public void seek(int frame) throws IOException
+    {
+	// (playing back, there is nothing to simulate)
+	if (player != null) {
+	    frameNumber = frame;
+	    return;
+	}
+
+	int from = (checkpoints != null) ? checkpoints.before(frame) : -1;
+
+	if (from >= 0 && (from > frameNumber || frame < frameNumber)) {
+	    restoreState(checkpoints.get(from));
+	} else if (frame < frameNumber) {
+	    build();
+	}
+
+	while (frameNumber < frame) {
+	    process();
+	    frameNumber++;
+	}
+    }
+
+    // -----------------------------------------------------------------
+
+    // Tell the quality governor how long the last frame took (interval
+    // since the one before, and time spent drawing it); quality only
+    // adapts while the option is on
+    public void frameTime(long interval, long work)
+    {
+        if (!adaptQuality.get()) {
+            if (governor.getLevel() != 0) {
+                governor.reset();
+                governor.apply(this);
+            }
+            return;
+        }
+
+        if (governor.frame(interval, work)) {
+            governor.apply(this);
+        }
+    }
+
     // Draw scene
-    public void draw(GL gl, GLUT glut)
+    public void draw(Renderer r)
     {
         // Light position
         float lt_posit[] = { 10, 5, 30, 0 };
         // Ground plane (for clipping)
         double ground[]  = { 0.0, 0.0, 1.0, 0.0 };
+
+        long frameStart = System.nanoTime(), start;
+        FrameRenderEvent event = new FrameRenderEvent();
+        event.begin();
+
+        // Parameter values for this frame
+        values = store.snapshot();
+
+        // Swap in new contents, or start making them
+        updateContents(values);
 	
-        // Do computation if animating
-        if (drawAnimation.value) {
+        // Do computation if animating (or put critters where they were
+        // in a recorded run)
+        if (player != null) {
+            replay();
+        } else if (values.get(drawAnimation)) {
             process();
+            record();
+        }
+
+        // Let other programs see where the critters are
+        if (stateFile != null) {
+            stateFile.publish(critters, frameNumber, computeClock);
         }
 	
         // ------------------------------------------------------------
 	
         // Initialize materials
-        materialSetup(gl);
+        materialSetup(r);
+
+        // Views of new trees for impostors (before anything is drawn;
+        // never when dumping, so dumped frames show the real geometry)
+        boolean useImpostors = Impostors.pixels > 0 && dumpPrefix == null;
+        if (useImpostors) {
+            impostors.update(r, obstacles, lt_posit);
+        }
 	
         // Specify V for scene
-        gl.glLoadIdentity();
-        transformation(gl);
+        r.loadIdentity();
+        transformation(r);
+
+        // View volume in scene coordinates (also used for level of
+        // detail when culling is off)
+        frustum.extract(r);
+        frustum.culling = values.get(cullView);
+        numDrawn = 0;
+        numCulled = 0;
 	
         // Position light wrt camera
-        gl.glLightfv(GL.GL_LIGHT0, GL.GL_POSITION, lt_posit, 0);
-        gl.glEnable(GL.GL_LIGHTING);
+        r.light(Renderer.POSITION, lt_posit);
+        r.enable(Renderer.LIGHTING);
 	
-        // Draw ground plane (a circle at z=0 of radius 15)
-        gl.glColor3d(0.4, 0.6, 0.35);
-        gl.glBegin(GL.GL_POLYGON);
-        gl.glNormal3d(0, 0, 1);
-        int ncirc = 200;
-        for (int i = 0; i < ncirc; i++) {
-            double theta = 2*Math.PI * i / ncirc;
-            gl.glVertex3d(15*Math.cos(theta), 15*Math.sin(theta), 0);
-        }
-        gl.glEnd();
+        // Draw ground (tiles near the eye; those near the eye or the
+        // main bug are kept made)
+        start = System.nanoTime();
+        terrain.update(frustum.eye, mainBug.pos);
+        r.color(0.4, 0.6, 0.35);
+        terrain.draw(r, frustum);
+        profiler.end(Profiler.GROUND, start);
 	
         // Draw critters
+        start = System.nanoTime();
         for (int i = 0; i < critters.size(); i++) {
-            ((Critter)(critters.elementAt(i))).draw(gl);
+            Critter c = (Critter)(critters.elementAt(i));
+
+            if (!frustum.isVisible(c.getBounds())) {
+                numCulled++;
+                continue;
+            }
+            if (!useImpostors || !impostors.draw(r, c, c.getBounds(), frustum)) {
+                c.draw(r, frustum);
+            }
+            numDrawn++;
         }
+        profiler.end(Profiler.CRITTERS, start);
 	
         // Clip below ground (so rocks don't peek below ground)
-        gl.glClipPlane(GL.GL_CLIP_PLANE0, ground, 0);
+        r.clipPlane(ground);
 
-        gl.glEnable(GL.GL_CLIP_PLANE0);
+        r.enable(Renderer.CLIP_PLANE0);
 	
         // Draw obstacles
+        start = System.nanoTime();
         for (int i = 0; i < obstacles.size(); i++) {
-            ((Obstacle)(obstacles.elementAt(i))).draw(gl);
+            Obstacle o = (Obstacle)(obstacles.elementAt(i));
+
+            if (!frustum.isVisible(o.getBounds())) {
+                numCulled++;
+                continue;
+            }
+            if (!useImpostors || !impostors.draw(r, o, o.getBounds(), frustum)) {
+                o.draw(r, frustum);
+            }
+            numDrawn++;
         }
-        gl.glDisable(GL.GL_CLIP_PLANE0);
+        r.disable(Renderer.CLIP_PLANE0);
+        profiler.end(Profiler.OBSTACLES, start);
 	
         // Draw text on top of display showing time
-        if (drawTime.value) {
-            drawText(gl, glut, computeClock / clockSpeed);
+        start = System.nanoTime();
+        if (values.get(drawTime)) {
+            drawText(r, computeClock / clockSpeed);
         } else {
             numPrevT = 0;
         }
+
+        // Draw time per phase (p50 / p99 / max)
+        if (values.get(drawProfile)) {
+            drawProfile(r);
+        }
+        profiler.end(Profiler.HUD, start);
+
+        profiler.end(Profiler.FRAME, frameStart);
+
+        event.frame = frameNumber;
+        event.drawn = numDrawn;
+        event.culled = numCulled;
+        event.commit();
     }
     
     // Transformation of scene based on GUI values
     // (also transform scene so Z is up, X is forward)
-    private void transformation(GL gl)
+    private void transformation(Renderer r)
     {
 	// Make X axis face forward, Y right, Z up
 	// (map ZXY to XYZ)
-	gl.glRotated(-90, 1, 0, 0);
-	gl.glRotated(-90, 0, 0, 1);
+	r.rotate(-90, 1, 0, 0);
+	r.rotate(-90, 0, 0, 1);
             
-	if (drawBugView.value) {
+	if (values.get(drawBugView)) {
 	    // ---- "Bug cam" transformation (for mainBug)
-		gl.glRotated(-Math.atan2(-mainBug.acc.y, -mainBug.acc.x)*(180/Math.PI), 0, 0, 1);
-		gl.glTranslated(-mainBug.pos.x, -mainBug.pos.y, -1.0);
+		r.rotate(-Math.atan2(-mainBug.acc.y, -mainBug.acc.x)*(180/Math.PI), 0, 0, 1);
+		r.translate(-mainBug.pos.x, -mainBug.pos.y, -mainBug.pos.z - 1.0);
 		
 	} else {
 	    // ---- Ordinary scene transformation
 
 	    // Move camera back so that scene is visible
-	    gl.glTranslated(-20, 0, 0);
+	    r.translate(-20, 0, 0);
 	    
 	    // Translate by Zoom/Horiz/Vert
-	    gl.glTranslated(tZ.value, tH.value, tV.value);
+	    r.translate(values.get(tZ), values.get(tH), values.get(tV));
 	    
 	    // Rotate by Alt/Azim
-	    gl.glRotated(rAlt.value,  0, 1, 0);
-	    gl.glRotated(rAzim.value, 0, 0, 1);
+	    r.rotate(values.get(rAlt),  0, 1, 0);
+	    r.rotate(values.get(rAzim), 0, 0, 1);
 	}
     }
 
     // Define materials and lights
-    private void materialSetup(GL gl)
+    private void materialSetup(Renderer r)
     {
 	float white[]  = {   1.0f,   1.0f,   1.0f, 1.0f };
 	float black[]  = {   0.0f,   0.0f,   0.0f, 1.0f };
 	float dim[]    = {   0.1f,   0.1f,   0.1f, 1.0f };
 	
 	// Set up material and light
-	gl.glMaterialfv(GL.GL_FRONT_AND_BACK, GL.GL_AMBIENT,  dim, 0);
-	gl.glMaterialfv(GL.GL_FRONT_AND_BACK, GL.GL_DIFFUSE,  white, 0);
-	gl.glMaterialfv(GL.GL_FRONT_AND_BACK, GL.GL_SPECULAR, dim, 0);
-	gl.glMaterialf(GL.GL_FRONT_AND_BACK, GL.GL_SHININESS, 5);
+	r.material(Renderer.AMBIENT,  dim);
+	r.material(Renderer.DIFFUSE,  white);
+	r.material(Renderer.SPECULAR, dim);
+	r.material(Renderer.SHININESS, 5);
 
 	// Set light color
- 	gl.glLightfv(GL.GL_LIGHT0, GL.GL_AMBIENT, dim, 0);
- 	gl.glLightfv(GL.GL_LIGHT0, GL.GL_DIFFUSE, white, 0);
- 	gl.glLightfv(GL.GL_LIGHT0, GL.GL_SPECULAR, black, 0);
+ 	r.light(Renderer.AMBIENT, dim);
+ 	r.light(Renderer.DIFFUSE, white);
+ 	r.light(Renderer.SPECULAR, black);
 
 	// Turn on light and lighting
-	gl.glEnable(GL.GL_LIGHT0);
-	gl.glEnable(GL.GL_LIGHTING);
+	r.enable(Renderer.LIGHT0);
+	r.enable(Renderer.LIGHTING);
 
-	// Allow glColor() to affect current diffuse material
-	gl.glColorMaterial(GL.GL_FRONT_AND_BACK, GL.GL_DIFFUSE);
-	gl.glEnable(GL.GL_COLOR_MATERIAL);
+	// Allow color() to affect current diffuse material
+	r.enable(Renderer.COLOR_MATERIAL);
     }
 
     // Draw text info on display
-    private void drawText(GL gl, GLUT glut, double t)
+    private void drawText(Renderer r, double t)
     {
 	String message;
 	DecimalFormat twodigit = new DecimalFormat("00");
 
-	// Put orthographic matrix on projection stack
-	gl.glMatrixMode(GL.GL_PROJECTION);
-	gl.glPushMatrix();
-	gl.glLoadIdentity();
-	gl.glOrtho(0, 1, 0, 1, -1, 1);
-	gl.glMatrixMode(GL.GL_MODELVIEW);
-
 	// Form text
 	message = new String((int)t/60 + ":" + 
 			     twodigit.format((int)t % 60) + "." +
@@ -483,38 +1211,37 @@ public class Scene
 
 	    message = message + "  (" + fpsFormat.format(fps) + " fps)";
 
+	    // Show when quality has been reduced
+	    if (governor.getLevel() > 0)
+		message = message + "  quality -" + governor.getLevel();
+
             fpsFormat = null;
 	}
 
-	gl.glDisable(GL.GL_LIGHTING);
-	gl.glDisable(GL.GL_DEPTH_TEST);
-
-	gl.glPushMatrix();
-	gl.glLoadIdentity();
-
 	// Draw text 
-	gl.glColor3d(0.8, 0.2, 0.2);
-	gl.glRasterPos2d(0.01, 0.01);
-        glut.glutBitmapString(glut.BITMAP_HELVETICA_18, message);
+	r.color(0.8, 0.2, 0.2);
+	r.text(0.01, 0.01, message);
         message = null;
 
 	// Draw bug cam label 
-	if (drawBugView.value) {
+	if (values.get(drawBugView)) {
 	    message = new String("BUG CAM");
-	    gl.glRasterPos2d(0.45, 0.01);
-  	    gl.glColor3d(1.0, 1.0, 1.0);
-            glut.glutBitmapString(glut.BITMAP_HELVETICA_18, message);
+	    r.text(0.45, 0.01, message);
+  	    r.color(1.0, 1.0, 1.0);
             message = null;
 	}
+    }
 
-	gl.glPopMatrix();
-
-	gl.glEnable(GL.GL_DEPTH_TEST);
+    // Show profiler summary, one phase per line from the top
+    private void drawProfile(Renderer r)
+    {
+	String[] lines = profiler.summary();
 
-	// Put back original viewing matrix
-	gl.glMatrixMode(GL.GL_PROJECTION);
-	gl.glPopMatrix();
-	gl.glMatrixMode(GL.GL_MODELVIEW);
+	r.color(0.8, 0.2, 0.2);
+	for (int i = 0; i < lines.length; i++) {
+	    r.text(0.01, 0.95 - 0.04*i, lines[i]);
+	}
+	r.color(1.0, 1.0, 1.0);
     }
 
     // ----------------------------------------------------------------------
@@ -526,7 +1253,7 @@ public class Scene
     private double computeFPS(double t)
     {
 	// Restart average when animation stops
-	if (t == 0 || !drawAnimation.value) {
+	if (t == 0 || !values.get(drawAnimation)) {
 	    numPrevT = 0;
 	    return 0;
 	}
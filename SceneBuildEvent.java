@@ -0,0 +1,22 @@
+/* class SceneBuildEvent
+ * Flight Recorder event for Scene.build (making all scene elements); each
+ * element also gets an ObstacleBuildEvent
+ *
+ */
+
+import jdk.jfr.*;
+
+@Name("cgproject.SceneBuild")
+@Label("Scene Build")
+@Category({ "CG Project", "Simulation" })
+class SceneBuildEvent extends Event
+{
+    @Label("Seed")
+    long seed;
+
+    @Label("Obstacles")
+    int obstacles;
+
+    @Label("Critters")
+    int critters;
+}
@@ -0,0 +1,32 @@
+/* class SceneContents
+ * Everything a scene is made of at one time: its elements (with what
+ * they were made from), the obstacle and critter lists that are drawn
+ * and simulated, and the generation parameter values they were made
+ * from. The lists are never changed once finished, so new contents can
+ * be built in the background while the old ones are still drawn, then
+ * swapped in whole.
+ *
+ */
+
+import java.util.*;
+
+class SceneContents
+{
+    // Elements, by kind
+    Vector<SceneElement> trees, rocks, bugs;
+
+    // The obstacles and critters made by the elements
+    Vector<Obstacle> obstacles;
+    Vector<Critter> critters;
+
+    // Main character (first bug)
+    Bug mainBug;
+
+    // Generation parameter values (rounded) the elements were made from,
+    // in the order of Scene.genParams
+    long[] made;
+
+    // True if made from scratch (the simulation starts over when these
+    // contents are swapped in)
+    boolean fresh;
+}
@@ -0,0 +1,60 @@
+/* class SceneElement
+ * One element of a scene (obstacle or critter) together with what it is
+ * generated from: its own random seed and the generation parameters it
+ * depends on. Scene rebuilds only the elements whose parameters changed
+ * since they were made; the rest are reused.
+ *
+ */
+
+import java.util.*;
+
+abstract class SceneElement
+{
+    // Seed for this element's random numbers (so making it again gives
+    // the same result, whatever else is made)
+    long seed;
+
+    // Parameters the element depends on (whole numbers, rounded as
+    // make() does), and their values when it was last made (null if
+    // never made)
+    DoubleParameter[] inputs;
+    private long[] used = null;
+
+    // The element itself (Obstacle or Critter)
+    Object element;
+
+    // ---------------------------------------------------------------
+
+    public SceneElement(long seedVal, DoubleParameter[] inputsVal)
+    {
+        seed = seedVal;
+        inputs = inputsVal;
+    }
+
+    // Make the element from parameter values v
+    abstract Object make(Random rgen, ParameterStore.Snapshot v);
+
+    // Whether the element was made with the values in v
+    public boolean isCurrent(ParameterStore.Snapshot v)
+    {
+        if (used == null)
+            return false;
+
+        for (int i = 0; i < inputs.length; i++) {
+            if (Math.round(v.get(inputs[i])) != used[i])
+                return false;
+        }
+        return true;
+    }
+
+    // Make the element (again) from the values in v
+    public void generate(ParameterStore.Snapshot v)
+    {
+        element = make(new Random(seed), v);
+
+        used = new long[inputs.length];
+        for (int i = 0; i < inputs.length; i++) {
+            used[i] = Math.round(v.get(inputs[i]));
+        }
+    }
+}
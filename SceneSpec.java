@@ -0,0 +1,36 @@
+/* class SceneSpec
+ * Contents of a generated stress scene (for benchmarks): how many bugs,
+ * rocks and trees, and how detailed rocks and trees are. Scene.build
+ * makes the standard scene when it has no SceneSpec.
+ *
+ */
+
+class SceneSpec
+{
+    // Number of bugs (at least one, the main bug)
+    int bugs;
+
+    // Number of rocks, and their subdivision level
+    int rocks, rockLevel;
+
+    // Number of trees, and their depth
+    int trees, treeDepth;
+
+    // ---------------------------------------------------------------
+
+    public SceneSpec(int bugsVal, int rocksVal, int rockLevelVal,
+                     int treesVal, int treeDepthVal)
+    {
+        bugs = Math.max(1, bugsVal);
+        rocks = rocksVal;
+        rockLevel = rockLevelVal;
+        trees = treesVal;
+        treeDepth = treeDepthVal;
+    }
+
+    public String toString()
+    {
+        return bugs + " bugs, " + rocks + " rocks (level " + rockLevel +
+            "), " + trees + " trees (depth " + treeDepth + ")";
+    }
+}
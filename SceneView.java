@@ -0,0 +1,120 @@
+/* class SceneView
+ * OpenGL setup, projection and drawing of a Scene, independent of the
+ * drawable it goes to (an on-screen WorldView or an OffscreenView)
+ *
+ */
+
+import javax.media.opengl.GL;
+
+import com.sun.opengl.util.GLUT;
+
+public class SceneView
+{
+    Scene s;
+    GLUT glut;
+
+    // Drawing operations for the scene (through GL)
+    GLRenderer renderer;
+
+    // Whether scene objects (sphere/cylinder) are initialized in the
+    // current context
+    boolean inited = false;
+
+    public SceneView(Scene sc, GLUT glutVal)
+    {
+        s = sc;
+        glut = glutVal;
+        renderer = new GLRenderer(null, glut);
+    }
+
+    public void init(GL gl)
+    {
+        // --- OpenGL Initialization
+
+        // New context: nothing is known about its state yet
+        renderer.invalidate();
+        s.impostors.reset();
+        inited = false;
+
+	// Set background color to sky blue
+	gl.glClearColor(0.58f, 0.74f, 0.98f, 0.0f);
+
+        // Turn on Z buffer
+        renderer.state.enable(gl, GL.GL_DEPTH_TEST);
+
+        // Turn on Gouraud shaded polygons
+        gl.glShadeModel(GL.GL_SMOOTH);
+
+	// Turn on automatic normalization for normal vectors
+	renderer.state.enable(gl, GL.GL_NORMALIZE);
+
+	// Let the current color set the diffuse material
+	gl.glColorMaterial(GL.GL_FRONT_AND_BACK, GL.GL_DIFFUSE);
+    }
+
+    // ------------------------------------------------------------
+
+    // Method for handling window resizing
+    public void projection(GL gl, int width, int height)
+    {
+        gl.glViewport(0, 0, width, height);
+
+        double[] f = frustum(width, height);
+
+        // Set the world projection
+        gl.glMatrixMode(GL.GL_PROJECTION);
+        gl.glLoadIdentity();
+        gl.glFrustum(f[0], f[1], f[2], f[3], f[4], f[5]);
+        gl.glMatrixMode(GL.GL_MODELVIEW);
+    }
+
+    // Projection frustum (left, right, bottom, top, near, far) for a
+    // view of a given size
+    public static double[] frustum(int width, int height)
+    {
+        double aspect = (double)width / height;
+        double l, r, b, t, n;
+        // Move near plane closer, but also shrink frustum so that
+        // field-of-view stays the same -- this way not much stuff
+        // gets clipped
+        double zoom = 10;
+
+        // Preserve aspect ratio
+        if (aspect > 1) {
+            r = aspect/zoom;
+            t = 1/zoom;
+        } else {
+            r = 1/zoom;
+            t = 1/(zoom*aspect);
+        }
+        // Window has (0,0) in center
+        l = -r;
+        b = -t;
+
+        // Set near plane location
+        // (making this smaller reduces the field-of-view)
+        n = 2;
+
+        return new double[] { l, r, b, t, n / zoom, 500 };
+    }
+
+    // Method for drawing the contents of the window
+    public void draw(GL gl)
+    {
+        // Clear the window and depth buffer
+        gl.glClear(GL.GL_COLOR_BUFFER_BIT | GL.GL_DEPTH_BUFFER_BIT);
+
+        renderer.setGL(gl);
+
+        if (!inited) {
+            // Initialize scene objects (sphere/cylinder, finest detail
+            // only for -nice)
+            Objs.initialize(renderer, s.nice ? 32 : 16, true);
+            Bug.initialize(renderer);
+            inited = true;
+        }
+
+        // Draw the scene
+        s.draw(renderer);
+   }
+}
@@ -36,6 +36,12 @@ implements GLEventListener
     
     private FPSAnimator animator;
     protected GLUT glut = null;
+
+    // Frame readback and writing (only when dumping)
+    private FrameCapture capture = null;
+
+    // Set when the program is quitting (next display only flushes)
+    private volatile boolean quitting = false;
     
     // Constructor
     public SimpleGLCanvas(Window parent)
@@ -45,16 +51,7 @@ implements GLEventListener
         animator = new FPSAnimator(this, 50);
         parent.addWindowListener(new WindowAdapter() {
                 public void windowClosing(WindowEvent e) {
-                    // Run this on another thread than the AWT event queue to
-                    // make sure the call to Animator.stop() completes before
-                    // exiting
-                    new Thread(new Runnable() {
-                            public void run() {
-                                if (animator.isAnimating())
-	            		  animator.stop();
-                                System.exit(0);
-                            }
-                        }).start();
+                    quit();
                 }
             });
         
@@ -82,6 +79,30 @@ implements GLEventListener
         return (System.currentTimeMillis() - startingTime) / 1000.0;
     }
     
+    // Stop animation, finish writing dumped frames, and exit
+    public void quit()
+    {
+        // Run this on another thread than the AWT event queue to
+        // make sure the call to Animator.stop() completes before
+        // exiting
+        new Thread(new Runnable() {
+                public void run() {
+                    if (animator.isAnimating())
+                      animator.stop();
+
+                    if (capture != null) {
+                        // Collect frames still in flight on the GPU,
+                        // then wait for the writers
+                        quitting = true;
+                        display();
+                        capture.finish();
+                    }
+
+                    System.exit(0);
+                }
+            }).start();
+    }
+
     // Check if animation is proceeding
     public boolean isAnimated()
     {
@@ -115,71 +136,52 @@ implements GLEventListener
     {
         GL gl = drawable.getGL();
         
+        // When quitting, only hand remaining frames to the writers
+        if (quitting) {
+            capture.flush(gl);
+            return;
+        }
+        
+        long start = System.nanoTime();
+
         // Draw the contents of the window (abstract method)
         draw(gl);
         
         // If animation is on, and dumping
-        if (Main.scene.drawAnimation.value) {
+        if (Main.scene.drawAnimation.get()) {
             if (Main.scene.dumpPrefix != null) {
-                // the size of the window
-                int width = getWidth();
-                int height = getHeight();
-                // Write frame to output file
-                byte[] pixels = new byte[width*height*3];
-                Buffer buffer = ByteBuffer.wrap(pixels);;
-                
-                gl.glReadBuffer(GL.GL_BACK);
-                gl.glPixelStorei(GL.GL_PACK_ALIGNMENT, 1);
-                gl.glReadPixels(0, 0, width, height, 
-                                GL.GL_RGB, GL.GL_UNSIGNED_BYTE, buffer);
+                if (capture == null) {
+                  capture = new FrameCapture(Main.scene.dumpPrefix);
+                  capture.profiler = Main.scene.profiler;
+                  capture.glState = glState();
+                }
                 
-                writeNextPNM(Main.scene.dumpPrefix, pixels);
+                // Read back frame; it is written out in the background
+                capture.capture(gl, getWidth(), getHeight(),
+                                Main.scene.getFrameNumber());
                 
                 Main.scene.incrementFrameNumber();
             }
+
+            // Let quality adapt to how long frames take
+            if (lastFrame != 0) {
+                Main.scene.frameTime(start - lastFrame,
+                                     System.nanoTime() - start);
+            }
+            lastFrame = start;
+        } else {
+            lastFrame = 0;
         }
     }
+
+    // Start time of the last animated frame (0 if not animating)
+    private long lastFrame = 0;
     
     public void displayChanged(GLAutoDrawable drawable,
                                boolean modeChanged, boolean deviceChanged)
     {
     }
     
-    // Write the next PNM file to output
-    private void writeNextPNM(String prefix, byte[] pixels)
-    {
-        Scene s = Main.scene;
-        DecimalFormat digits = new DecimalFormat("0000");
-        
-    	// the size of the window
-    	int width = getWidth();
-    	int height = getHeight();
-        
-        String header = new String("P6" + '\n' +
-                                   width + " " + height + '\n' +
-                                   "255" + '\n');
-	
-        String filename = new String(prefix +
-                                     digits.format(s.getFrameNumber()) +
-                                     ".ppm");
-	
-        byte[] bhead = header.getBytes();
-	
-        try {
-            FileOutputStream stream = new FileOutputStream(filename);
-            
-            stream.write(bhead);
-            for (int r = 0; r < height; r++) {
-                stream.write(pixels, width*3*(height-r-1), width*3);
-            }
-            
-            stream.close();
-        } catch (IOException e) {
-            System.out.println(e);
-            System.exit(-1);
-        }
-    }
-    
     // ---------------------------------------------------------------------
     // Drawing and projection functions
     
@@ -191,4 +193,8 @@ implements GLEventListener
     
     // Called whenever window needs to be redrawn
     abstract public void draw(GL gl);
+
+    // Cached GL state of the context drawn into (shared with frame
+    // capture, which binds buffers in the same context)
+    abstract public GLState glState();
 }
@@ -0,0 +1,24 @@
+/* class SimulationStepEvent
+ * Flight Recorder event for one call of Scene.process (advancing the
+ * critters to the current time)
+ *
+ */
+
+import jdk.jfr.*;
+
+@Name("cgproject.SimulationStep")
+@Label("Simulation Step")
+@Category({ "CG Project", "Simulation" })
+class SimulationStepEvent extends Event
+{
+    @Label("Critters")
+    int critters;
+
+    @Label("Substeps")
+    int substeps;
+
+    // (a timespan has to be a long)
+    @Label("Simulated Time")
+    @Timespan(Timespan.NANOSECONDS)
+    long dTime;
+}
@@ -0,0 +1,1106 @@
+/* class SoftwareRenderer
+ * Pure-Java Renderer (no OpenGL needed): vertices are transformed and
+ * lit (Gouraud shading, one light, as set up in Scene.materialSetup) as
+ * they are given, clipped against the near plane and clip plane 0, and
+ * the resulting triangles are sorted into screen tiles. finish() then
+ * rasterizes all tiles in parallel with a z-buffer.
+ *
+ * Display lists record geometry, colors and transformations; they are
+ * shared by all SoftwareRenderers (so they may be used from several
+ * threads once compiled), as are textures. Textures are sampled
+ * perspective-correctly from the nearest texel.
+ *
+ */
+
+import java.awt.*;
+import java.awt.image.*;
+import java.util.*;
+import java.util.List;
+import java.util.concurrent.*;
+
+class SoftwareRenderer implements Renderer
+{
+    // Size of square screen tiles (in pixels)
+    static final int tileSize = 64;
+
+    // Image size
+    int width, height;
+
+    // Color buffer (packed RGB, rows top to bottom so that text can be
+    // drawn into it with Java2D), depth buffer (same layout)
+    private int[] colorBuf;
+    private float[] depthBuf;
+    private BufferedImage image;
+
+    // Background color (packed RGB)
+    int clearColor = 0x94bdfa;
+
+    // ---------------------------------------------------------------
+    // Transformation state
+
+    // Projection and modelview (column-major, as in OpenGL)
+    private double[] proj = new double[16];
+    private double[] model = new double[16];
+
+    // Modelview stack
+    private double[] stack = new double[16 * 64];
+    private int stackDepth = 0;
+
+    // Inverse transpose of modelview 3x3 part (for normals)
+    private double[] normalMat = new double[9];
+    private boolean normalMatValid = false;
+
+    // ---------------------------------------------------------------
+    // Lighting state
+
+    // (the depth test is always on; text is drawn after the z-buffer)
+    private boolean lighting = false, clip0 = false;
+
+    // Current color, normal, texture coordinates and texture
+    private double cr = 1, cg = 1, cb = 1;
+    private double nx = 0, ny = 0, nz = 1;
+    private double cs = 0, ct = 0;
+    private int texture = 0;
+
+    // Constant part of lit color: global ambient (0.2) and light
+    // ambient, times material ambient
+    private double[] ambient = { 0.2*0.2, 0.2*0.2, 0.2*0.2 };
+    private float[] matAmbient = { 0.2f, 0.2f, 0.2f, 1 };
+    private float[] lightAmbient = { 0, 0, 0, 1 };
+    private float[] lightDiffuse = { 1, 1, 1, 1 };
+
+    // Light position in eye coordinates (w=0 for a directional light)
+    private double[] lightEye = { 0, 0, 1, 0 };
+
+    // Clip plane 0 in eye coordinates
+    private double[] clipEye = new double[4];
+
+    // ---------------------------------------------------------------
+    // Primitive assembly
+
+    // Vertex attributes: clip x,y,z,w, color r,g,b, clip plane distance,
+    // texture s,t
+    static final int vSize = 10;
+
+    private int mode;
+    private double[] prim = new double[vSize * 64];
+    private int primCount = 0;
+
+    // Scratch polygons for clipping
+    private double[] polyA = new double[vSize * 8];
+    private double[] polyB = new double[vSize * 8];
+
+    // ---------------------------------------------------------------
+    // Triangles of this frame and their tiles
+
+    // Screen x,y,z, color r,g,b and texture s/w, t/w, 1/w of each of
+    // the 3 vertices, and texture of each triangle
+    static final int tSize = 27;
+
+    private float[] tris = new float[tSize * 4096];
+    private int[] triTex = new int[4096];
+    private int numTris = 0;
+
+    private int tilesX, tilesY;
+    private int[][] bins;
+    private int[] binCount;
+
+    // Text to draw after rasterization
+    private Vector<Object[]> texts = new Vector<Object[]>();
+    private Font font = new Font("SansSerif", Font.PLAIN, 18);
+
+    // Threads rasterizing tiles
+    private ExecutorService workers;
+    private List<Callable<Object>> tileTasks;
+
+    // ---------------------------------------------------------------
+    // Display lists (shared), and list being recorded
+
+    private static Vector<double[]> lists = new Vector<double[]>();
+    static {
+        // (list 0 is not a valid list, as in OpenGL)
+        lists.add(new double[0]);
+    }
+
+    private int recordList = 0;
+    private double[] rec;
+    private int recCount;
+
+    // Opcodes in recorded lists
+    static final int opBegin = 0, opEnd = 1, opNormal = 2, opVertex = 3,
+        opColor = 4, opPush = 5, opPop = 6, opTranslate = 7, opRotate = 8,
+        opScale = 9, opCall = 10, opTexture = 11, opTexCoord = 12;
+
+    // ---------------------------------------------------------------
+    // Textures (shared; packed ARGB, rows bottom to top), their widths,
+    // and what drawing into one replaced (see beginTexture)
+
+    private static Vector<int[]> textures = new Vector<int[]>();
+    private static Vector<Integer> texWidths = new Vector<Integer>();
+    static {
+        // (texture 0 stands for no texture)
+        textures.add(new int[0]);
+        texWidths.add(0);
+    }
+
+    private int[] target;
+    private int targetX, targetY, targetWidth, savedTris;
+    private int savedWidth, savedHeight, savedTilesX, savedTilesY;
+    private int[] savedColor, savedBinCount;
+    private float[] savedDepth;
+    private int[][] savedBins;
+    private double[] savedProj = new double[16], savedModel = new double[16];
+
+    // ---------------------------------------------------------------
+
+    // Constructor for an image of given size, rasterized by a given
+    // number of threads
+    public SoftwareRenderer(int w, int h, int numThreads)
+    {
+        width = w;
+        height = h;
+
+        image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        colorBuf = ((DataBufferInt)image.getRaster().getDataBuffer()).getData();
+        depthBuf = new float[width * height];
+
+        tilesX = (width + tileSize - 1) / tileSize;
+        tilesY = (height + tileSize - 1) / tileSize;
+        bins = new int[tilesX * tilesY][64];
+        binCount = new int[tilesX * tilesY];
+
+        workers = Executors.newFixedThreadPool(numThreads,
+            new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "raster");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+
+        tileTasks = new ArrayList<Callable<Object>>();
+        for (int i = 0; i < tilesX * tilesY; i++) {
+            final int tile = i;
+            tileTasks.add(new Callable<Object>() {
+                    public Object call() {
+                        rasterizeTile(tile);
+                        return null;
+                    }
+                });
+        }
+
+        setIdentity(model);
+        setIdentity(proj);
+    }
+
+    // Set projection (as glFrustum)
+    public void frustum(double l, double r, double b, double t,
+                        double n, double f)
+    {
+        Arrays.fill(proj, 0);
+        proj[0]  = 2*n / (r-l);
+        proj[5]  = 2*n / (t-b);
+        proj[8]  = (r+l) / (r-l);
+        proj[9]  = (t+b) / (t-b);
+        proj[10] = -(f+n) / (f-n);
+        proj[11] = -1;
+        proj[14] = -2*f*n / (f-n);
+    }
+
+    // Start a new frame: clear color and depth
+    public void beginFrame()
+    {
+        Arrays.fill(colorBuf, clearColor);
+        Arrays.fill(depthBuf, 1.0f);
+
+        numTris = 0;
+        Arrays.fill(binCount, 0);
+        texts.clear();
+    }
+
+    // Rasterize all triangles of the frame (in parallel by tile), then
+    // draw the text on top
+    public void finish()
+    {
+        try {
+            workers.invokeAll(tileTasks);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        if (texts.size() > 0) {
+            Graphics2D g = image.createGraphics();
+            g.setFont(font);
+            g.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING,
+                               RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+
+            for (int i = 0; i < texts.size(); i++) {
+                Object[] t = texts.elementAt(i);
+                double[] pos = (double[])t[0];
+
+                g.setColor(new Color((Integer)t[2]));
+                g.drawString((String)t[1], (int)(pos[0] * width),
+                             (int)((1 - pos[1]) * height));
+            }
+            g.dispose();
+        }
+    }
+
+    // Copy frame into RGB bytes, rows bottom to top (as glReadPixels)
+    public void getPixels(byte[] pixels)
+    {
+        for (int y = 0; y < height; y++) {
+            int src = (height-1-y) * width;
+            int dst = 3 * y * width;
+
+            for (int x = 0; x < width; x++) {
+                int c = colorBuf[src + x];
+
+                pixels[dst++] = (byte)(c >> 16);
+                pixels[dst++] = (byte)(c >> 8);
+                pixels[dst++] = (byte)c;
+            }
+        }
+    }
+
+    // Stop rasterizer threads
+    public void shutdown()
+    {
+        workers.shutdown();
+    }
+
+    // ---------------------------------------------------------------
+    // Modelview matrix
+
+    public void loadIdentity()
+    {
+        setIdentity(model);
+        normalMatValid = false;
+    }
+
+    public void pushMatrix()
+    {
+        if (recordList != 0) {
+            record(opPush);
+            return;
+        }
+
+        System.arraycopy(model, 0, stack, 16 * stackDepth, 16);
+        stackDepth++;
+    }
+
+    public void popMatrix()
+    {
+        if (recordList != 0) {
+            record(opPop);
+            return;
+        }
+
+        stackDepth--;
+        System.arraycopy(stack, 16 * stackDepth, model, 0, 16);
+        normalMatValid = false;
+    }
+
+    public void translate(double x, double y, double z)
+    {
+        if (recordList != 0) {
+            record(opTranslate, x, y, z);
+            return;
+        }
+
+        for (int i = 0; i < 4; i++) {
+            model[12+i] += model[i]*x + model[4+i]*y + model[8+i]*z;
+        }
+    }
+
+    public void rotate(double angle, double x, double y, double z)
+    {
+        if (recordList != 0) {
+            record(opRotate, angle, x, y, z);
+            return;
+        }
+
+        double len = Math.sqrt(x*x + y*y + z*z);
+        x /= len;
+        y /= len;
+        z /= len;
+
+        double a = Math.toRadians(angle);
+        double c = Math.cos(a), s = Math.sin(a), t = 1 - c;
+
+        // Rotation matrix (as in glRotate), column-major
+        double[] r = {
+            t*x*x + c,   t*x*y + s*z, t*x*z - s*y, 0,
+            t*x*y - s*z, t*y*y + c,   t*y*z + s*x, 0,
+            t*x*z + s*y, t*y*z - s*x, t*z*z + c,   0,
+            0,           0,           0,           1
+        };
+        multiply(model, r);
+        normalMatValid = false;
+    }
+
+    public void scale(double x, double y, double z)
+    {
+        if (recordList != 0) {
+            record(opScale, x, y, z);
+            return;
+        }
+
+        for (int i = 0; i < 4; i++) {
+            model[i]   *= x;
+            model[4+i] *= y;
+            model[8+i] *= z;
+        }
+        normalMatValid = false;
+    }
+
+    public void getMatrices(double[] p, double[] m)
+    {
+        System.arraycopy(proj, 0, p, 0, 16);
+        System.arraycopy(model, 0, m, 0, 16);
+    }
+
+    public void getViewport(int[] viewport)
+    {
+        viewport[0] = 0;
+        viewport[1] = 0;
+        viewport[2] = width;
+        viewport[3] = height;
+    }
+
+    // ---------------------------------------------------------------
+    // State
+
+    public void enable(int cap)
+    {
+        setCap(cap, true);
+    }
+
+    public void disable(int cap)
+    {
+        setCap(cap, false);
+    }
+
+    private void setCap(int cap, boolean on)
+    {
+        if (cap == LIGHTING)
+            lighting = on;
+        else if (cap == CLIP_PLANE0)
+            clip0 = on;
+        // (depth test, color material and light 0 are always on)
+    }
+
+    public void color(double r, double g, double b)
+    {
+        if (recordList != 0) {
+            record(opColor, r, g, b);
+            return;
+        }
+
+        cr = r;
+        cg = g;
+        cb = b;
+    }
+
+    public void getColor(double[] c)
+    {
+        c[0] = cr;
+        c[1] = cg;
+        c[2] = cb;
+    }
+
+    public void material(int pname, float[] v)
+    {
+        if (pname == AMBIENT) {
+            matAmbient = v.clone();
+            updateAmbient();
+        }
+        // (diffuse comes from the color; no specular highlights)
+    }
+
+    public void material(int pname, float v)
+    {
+    }
+
+    public void light(int pname, float[] v)
+    {
+        if (pname == POSITION) {
+            // Light position is transformed by the current modelview
+            for (int i = 0; i < 4; i++) {
+                lightEye[i] = model[i]*v[0] + model[4+i]*v[1] +
+                    model[8+i]*v[2] + model[12+i]*v[3];
+            }
+            if (lightEye[3] == 0) {
+                double len = Math.sqrt(lightEye[0]*lightEye[0] +
+                                       lightEye[1]*lightEye[1] +
+                                       lightEye[2]*lightEye[2]);
+                lightEye[0] /= len;
+                lightEye[1] /= len;
+                lightEye[2] /= len;
+            }
+        } else if (pname == AMBIENT) {
+            lightAmbient = v.clone();
+            updateAmbient();
+        } else if (pname == DIFFUSE) {
+            lightDiffuse = v.clone();
+        }
+    }
+
+    private void updateAmbient()
+    {
+        for (int i = 0; i < 3; i++) {
+            ambient[i] = (0.2 + lightAmbient[i]) * matAmbient[i];
+        }
+    }
+
+    public void clipPlane(double[] eq)
+    {
+        // Plane in eye coordinates is eq times inverse modelview
+        double[] inv = new double[16];
+        invert(model, inv);
+
+        for (int i = 0; i < 4; i++) {
+            clipEye[i] = eq[0]*inv[4*i] + eq[1]*inv[4*i+1] +
+                eq[2]*inv[4*i+2] + eq[3]*inv[4*i+3];
+        }
+    }
+
+    // ---------------------------------------------------------------
+    // Geometry
+
+    public void begin(int m)
+    {
+        if (recordList != 0) {
+            record(opBegin, m);
+            return;
+        }
+
+        mode = m;
+        primCount = 0;
+    }
+
+    public void normal(double x, double y, double z)
+    {
+        if (recordList != 0) {
+            record(opNormal, x, y, z);
+            return;
+        }
+
+        nx = x;
+        ny = y;
+        nz = z;
+    }
+
+    // Transform, light and store vertex
+    public void vertex(double x, double y, double z)
+    {
+        if (recordList != 0) {
+            record(opVertex, x, y, z);
+            return;
+        }
+
+        // Eye coordinates
+        double ex = model[0]*x + model[4]*y + model[8]*z  + model[12];
+        double ey = model[1]*x + model[5]*y + model[9]*z  + model[13];
+        double ez = model[2]*x + model[6]*y + model[10]*z + model[14];
+        double ew = model[3]*x + model[7]*y + model[11]*z + model[15];
+
+        if ((primCount + 1) * vSize > prim.length)
+            prim = Arrays.copyOf(prim, prim.length * 2);
+        int v = primCount * vSize;
+
+        // Clip coordinates
+        prim[v]   = proj[0]*ex + proj[4]*ey + proj[8]*ez  + proj[12]*ew;
+        prim[v+1] = proj[1]*ex + proj[5]*ey + proj[9]*ez  + proj[13]*ew;
+        prim[v+2] = proj[2]*ex + proj[6]*ey + proj[10]*ez + proj[14]*ew;
+        prim[v+3] = proj[3]*ex + proj[7]*ey + proj[11]*ez + proj[15]*ew;
+
+        // Color
+        if (lighting) {
+            if (!normalMatValid)
+                computeNormalMatrix();
+
+            double mx = normalMat[0]*nx + normalMat[3]*ny + normalMat[6]*nz;
+            double my = normalMat[1]*nx + normalMat[4]*ny + normalMat[7]*nz;
+            double mz = normalMat[2]*nx + normalMat[5]*ny + normalMat[8]*nz;
+            double len = Math.sqrt(mx*mx + my*my + mz*mz);
+
+            double lx = lightEye[0], ly = lightEye[1], lz = lightEye[2];
+            if (lightEye[3] != 0) {
+                // Positional light: direction from vertex to light
+                lx = lx/lightEye[3] - ex/ew;
+                ly = ly/lightEye[3] - ey/ew;
+                lz = lz/lightEye[3] - ez/ew;
+                double ll = Math.sqrt(lx*lx + ly*ly + lz*lz);
+                lx /= ll;
+                ly /= ll;
+                lz /= ll;
+            }
+
+            double d = (len > 0) ? (mx*lx + my*ly + mz*lz) / len : 0;
+            if (d < 0)
+                d = 0;
+
+            prim[v+4] = ambient[0] + d * lightDiffuse[0] * cr;
+            prim[v+5] = ambient[1] + d * lightDiffuse[1] * cg;
+            prim[v+6] = ambient[2] + d * lightDiffuse[2] * cb;
+        } else {
+            prim[v+4] = cr;
+            prim[v+5] = cg;
+            prim[v+6] = cb;
+        }
+
+        // Distance to clip plane 0
+        prim[v+7] = clipEye[0]*ex + clipEye[1]*ey + clipEye[2]*ez +
+            clipEye[3]*ew;
+
+        prim[v+8] = cs;
+        prim[v+9] = ct;
+
+        primCount++;
+    }
+
+    // Break primitive into triangles
+    public void end()
+    {
+        if (recordList != 0) {
+            record(opEnd);
+            return;
+        }
+
+        if (mode == TRIANGLES) {
+            for (int i = 0; i + 2 < primCount; i += 3)
+                triangle(i, i+1, i+2);
+        } else if (mode == QUADS) {
+            for (int i = 0; i + 3 < primCount; i += 4) {
+                triangle(i, i+1, i+2);
+                triangle(i, i+2, i+3);
+            }
+        } else if (mode == QUAD_STRIP) {
+            for (int i = 0; i + 3 < primCount; i += 2) {
+                triangle(i, i+1, i+3);
+                triangle(i, i+3, i+2);
+            }
+        } else {
+            // Polygon (convex, drawn as a fan)
+            for (int i = 1; i + 1 < primCount; i++)
+                triangle(0, i, i+1);
+        }
+
+        primCount = 0;
+    }
+
+    // ---------------------------------------------------------------
+    // Display lists
+
+    public int genLists(int n)
+    {
+        synchronized (lists) {
+            int first = lists.size();
+
+            for (int i = 0; i < n; i++)
+                lists.add(new double[0]);
+
+            return first;
+        }
+    }
+
+    public void newList(int list)
+    {
+        recordList = list;
+        rec = new double[256];
+        recCount = 0;
+    }
+
+    public void endList()
+    {
+        lists.set(recordList, Arrays.copyOf(rec, recCount));
+        recordList = 0;
+        rec = null;
+    }
+
+    public void callList(int list)
+    {
+        if (recordList != 0) {
+            record(opCall, list);
+            return;
+        }
+
+        double[] ops = lists.elementAt(list);
+
+        for (int i = 0; i < ops.length; ) {
+            switch ((int)ops[i]) {
+              case opBegin:     begin((int)ops[i+1]);                    i += 2; break;
+              case opEnd:       end();                                   i += 1; break;
+              case opNormal:    normal(ops[i+1], ops[i+2], ops[i+3]);    i += 4; break;
+              case opVertex:    vertex(ops[i+1], ops[i+2], ops[i+3]);    i += 4; break;
+              case opColor:     color(ops[i+1], ops[i+2], ops[i+3]);     i += 4; break;
+              case opPush:      pushMatrix();                            i += 1; break;
+              case opPop:       popMatrix();                             i += 1; break;
+              case opTranslate: translate(ops[i+1], ops[i+2], ops[i+3]); i += 4; break;
+              case opRotate:    rotate(ops[i+1], ops[i+2], ops[i+3], ops[i+4]); i += 5; break;
+              case opScale:     scale(ops[i+1], ops[i+2], ops[i+3]);     i += 4; break;
+              case opCall:      callList((int)ops[i+1]);                 i += 2; break;
+              case opTexture:   bindTexture((int)ops[i+1]);              i += 2; break;
+              case opTexCoord:  texCoord(ops[i+1], ops[i+2]);            i += 3; break;
+              default:          return;
+            }
+        }
+    }
+
+    // Append an operation to the list being recorded
+    private void record(double... op)
+    {
+        if (recCount + op.length > rec.length)
+            rec = Arrays.copyOf(rec, Math.max(rec.length * 2,
+                                              recCount + op.length));
+        System.arraycopy(op, 0, rec, recCount, op.length);
+        recCount += op.length;
+    }
+
+    // ---------------------------------------------------------------
+    // Textures
+
+    public int genTexture(int w, int h)
+    {
+        synchronized (textures) {
+            textures.add(new int[w * h]);
+            texWidths.add(w);
+            return textures.size() - 1;
+        }
+    }
+
+    // Triangles drawn into the texture are kept after those of the
+    // frame, and rasterized (here, on this thread) into a buffer of their
+    // own by endTexture
+    public void beginTexture(int tex, int x, int y, int w, int h,
+                             double l, double r, double b, double t,
+                             double n, double f)
+    {
+        target = textures.elementAt(tex);
+        targetWidth = texWidths.elementAt(tex);
+        targetX = x;
+        targetY = y;
+
+        savedWidth = width;
+        savedHeight = height;
+        savedTilesX = tilesX;
+        savedTilesY = tilesY;
+        savedColor = colorBuf;
+        savedDepth = depthBuf;
+        savedBins = bins;
+        savedBinCount = binCount;
+        savedTris = numTris;
+        System.arraycopy(proj, 0, savedProj, 0, 16);
+        System.arraycopy(model, 0, savedModel, 0, 16);
+
+        width = w;
+        height = h;
+        tilesX = (w + tileSize - 1) / tileSize;
+        tilesY = (h + tileSize - 1) / tileSize;
+        colorBuf = new int[w * h];
+        depthBuf = new float[w * h];
+        Arrays.fill(depthBuf, 1.0f);
+        bins = new int[tilesX * tilesY][64];
+        binCount = new int[tilesX * tilesY];
+
+        // Orthographic projection (as glOrtho)
+        Arrays.fill(proj, 0);
+        proj[0]  = 2 / (r-l);
+        proj[5]  = 2 / (t-b);
+        proj[10] = -2 / (f-n);
+        proj[12] = -(r+l) / (r-l);
+        proj[13] = -(t+b) / (t-b);
+        proj[14] = -(f+n) / (f-n);
+        proj[15] = 1;
+
+        setIdentity(model);
+        normalMatValid = false;
+        texture = 0;
+    }
+
+    public void endTexture()
+    {
+        for (int tile = 0; tile < tilesX * tilesY; tile++) {
+            rasterizeTile(tile);
+        }
+
+        // Texels drawn are opaque, others transparent
+        for (int py = 0; py < height; py++) {
+            int row = (height-1-py) * width;
+            int dst = (targetY + py) * targetWidth + targetX;
+
+            for (int px = 0; px < width; px++) {
+                target[dst + px] = (depthBuf[row + px] < 1.0f) ?
+                    0xff000000 | colorBuf[row + px] : 0;
+            }
+        }
+
+        width = savedWidth;
+        height = savedHeight;
+        tilesX = savedTilesX;
+        tilesY = savedTilesY;
+        colorBuf = savedColor;
+        depthBuf = savedDepth;
+        bins = savedBins;
+        binCount = savedBinCount;
+        numTris = savedTris;
+        System.arraycopy(savedProj, 0, proj, 0, 16);
+        System.arraycopy(savedModel, 0, model, 0, 16);
+        normalMatValid = false;
+        target = null;
+        savedColor = null;
+        savedDepth = null;
+        savedBins = null;
+    }
+
+    public void bindTexture(int tex)
+    {
+        if (recordList != 0) {
+            record(opTexture, tex);
+            return;
+        }
+
+        texture = tex;
+    }
+
+    public void texCoord(double s, double t)
+    {
+        if (recordList != 0) {
+            record(opTexCoord, s, t);
+            return;
+        }
+
+        cs = s;
+        ct = t;
+    }
+
+    // ---------------------------------------------------------------
+
+    public void text(double x, double y, String s)
+    {
+        int c = (clamp(cr) << 16) | (clamp(cg) << 8) | clamp(cb);
+
+        texts.add(new Object[] { new double[] { x, y }, s, c });
+
+        // (as in GLRenderer, lighting is left off)
+        lighting = false;
+    }
+
+    // ---------------------------------------------------------------
+    // Clipping and binning
+
+    // Clip triangle of primitive vertices a, b, c and store the result
+    private void triangle(int a, int b, int c)
+    {
+        System.arraycopy(prim, a * vSize, polyA, 0, vSize);
+        System.arraycopy(prim, b * vSize, polyA, vSize, vSize);
+        System.arraycopy(prim, c * vSize, polyA, 2 * vSize, vSize);
+        int n = 3;
+
+        // Near plane: z + w >= 0
+        n = clip(polyA, n, polyB, -1);
+        if (n < 3)
+            return;
+
+        double[] poly = polyB;
+        if (clip0) {
+            n = clip(polyB, n, polyA, 7);
+            if (n < 3)
+                return;
+            poly = polyA;
+        }
+
+        for (int i = 1; i + 1 < n; i++) {
+            store(poly, 0, i, i+1);
+        }
+    }
+
+    // Sutherland-Hodgman clip of polygon in (n vertices) against one
+    // plane; the distance is attribute dist, or z+w if dist is -1
+    private int clip(double[] in, int n, double[] out, int dist)
+    {
+        int m = 0;
+
+        for (int i = 0; i < n; i++) {
+            int p = i * vSize, q = ((i+1) % n) * vSize;
+            double dp = (dist < 0) ? in[p+2] + in[p+3] : in[p+dist];
+            double dq = (dist < 0) ? in[q+2] + in[q+3] : in[q+dist];
+
+            if (dp >= 0) {
+                System.arraycopy(in, p, out, m * vSize, vSize);
+                m++;
+            }
+            if ((dp >= 0) != (dq >= 0)) {
+                double t = dp / (dp - dq);
+                int o = m * vSize;
+                for (int k = 0; k < vSize; k++)
+                    out[o+k] = in[p+k] + t * (in[q+k] - in[p+k]);
+                m++;
+            }
+        }
+
+        return m;
+    }
+
+    // Project triangle to the screen, store it, and add it to the bins
+    // of all tiles its bounding box touches
+    private void store(double[] poly, int a, int b, int c)
+    {
+        if ((numTris + 1) * tSize > tris.length) {
+            tris = Arrays.copyOf(tris, tris.length * 2);
+            triTex = Arrays.copyOf(triTex, triTex.length * 2);
+        }
+        int t = numTris * tSize;
+        triTex[numTris] = texture;
+
+        int[] vs = { a, b, c };
+        float minX = width, maxX = 0, minY = height, maxY = 0;
+
+        for (int k = 0; k < 3; k++) {
+            int v = vs[k] * vSize;
+            double w = poly[v+3];
+            float sx = (float)((poly[v]   / w * 0.5 + 0.5) * width);
+            float sy = (float)((poly[v+1] / w * 0.5 + 0.5) * height);
+            float sz = (float)( poly[v+2] / w * 0.5 + 0.5);
+
+            tris[t + 9*k]     = sx;
+            tris[t + 9*k + 1] = sy;
+            tris[t + 9*k + 2] = sz;
+            tris[t + 9*k + 3] = (float)poly[v+4];
+            tris[t + 9*k + 4] = (float)poly[v+5];
+            tris[t + 9*k + 5] = (float)poly[v+6];
+            tris[t + 9*k + 6] = (float)(poly[v+8] / w);
+            tris[t + 9*k + 7] = (float)(poly[v+9] / w);
+            tris[t + 9*k + 8] = (float)(1 / w);
+
+            minX = Math.min(minX, sx);
+            maxX = Math.max(maxX, sx);
+            minY = Math.min(minY, sy);
+            maxY = Math.max(maxY, sy);
+        }
+
+        if (maxX < 0 || maxY < 0 || minX >= width || minY >= height)
+            return;
+
+        int tx0 = Math.max(0, (int)minX / tileSize);
+        int tx1 = Math.min(tilesX-1, (int)maxX / tileSize);
+        int ty0 = Math.max(0, (int)minY / tileSize);
+        int ty1 = Math.min(tilesY-1, (int)maxY / tileSize);
+
+        for (int ty = ty0; ty <= ty1; ty++) {
+            for (int tx = tx0; tx <= tx1; tx++) {
+                int tile = ty * tilesX + tx;
+
+                if (binCount[tile] == bins[tile].length)
+                    bins[tile] = Arrays.copyOf(bins[tile],
+                                               bins[tile].length * 2);
+                bins[tile][binCount[tile]++] = numTris;
+            }
+        }
+
+        numTris++;
+    }
+
+    // ---------------------------------------------------------------
+    // Rasterization
+
+    // Draw all triangles binned to a tile (in the order they were given)
+    private void rasterizeTile(int tile)
+    {
+        int x0 = (tile % tilesX) * tileSize, y0 = (tile / tilesX) * tileSize;
+        int x1 = Math.min(width, x0 + tileSize);
+        int y1 = Math.min(height, y0 + tileSize);
+        int[] bin = bins[tile];
+
+        for (int i = 0; i < binCount[tile]; i++) {
+            int t = bin[i] * tSize;
+
+            float ax = tris[t],    ay = tris[t+1];
+            float bx = tris[t+9],  by = tris[t+10];
+            float cx = tris[t+18], cy = tris[t+19];
+
+            // Texture (if any) and its size
+            int[] tex = null;
+            int texW = 0, texH = 0;
+            if (triTex[bin[i]] != 0) {
+                tex = textures.elementAt(triTex[bin[i]]);
+                texW = texWidths.elementAt(triTex[bin[i]]);
+                texH = tex.length / texW;
+            }
+
+            float area = (bx-ax)*(cy-ay) - (cx-ax)*(by-ay);
+            if (area == 0)
+                continue;
+            float inv = 1 / area;
+
+            // Pixel range of triangle within tile
+            int px0 = Math.max(x0, (int)Math.floor(Math.min(ax, Math.min(bx, cx))));
+            int px1 = Math.min(x1-1, (int)Math.ceil(Math.max(ax, Math.max(bx, cx))));
+            int py0 = Math.max(y0, (int)Math.floor(Math.min(ay, Math.min(by, cy))));
+            int py1 = Math.min(y1-1, (int)Math.ceil(Math.max(ay, Math.max(by, cy))));
+
+            for (int py = py0; py <= py1; py++) {
+                float y = py + 0.5f;
+                int row = (height-1-py) * width;
+
+                // Barycentric coordinates along the row are linear in x:
+                // l0 = a0*x + k0, l1 = a1*x + k1, l2 = 1 - l0 - l1
+                float a0 = (by-cy) * inv, k0 = (bx*(cy-y) - cx*(by-y)) * inv;
+                float a1 = (cy-ay) * inv, k1 = (cx*(ay-y) - ax*(cy-y)) * inv;
+                float a2 = -a0 - a1,      k2 = 1 - k0 - k1;
+
+                // Range of pixels on this row inside all three edges
+                int sx0 = px0, sx1 = px1;
+                float[] a = { a0, a1, a2 }, k = { k0, k1, k2 };
+                for (int e = 0; e < 3; e++) {
+                    if (a[e] > 0) {
+                        sx0 = Math.max(sx0, (int)Math.floor(-k[e]/a[e] - 0.5f));
+                    } else if (a[e] < 0) {
+                        sx1 = Math.min(sx1, (int)Math.ceil(-k[e]/a[e] - 0.5f));
+                    } else if (k[e] < 0) {
+                        sx1 = sx0 - 1;
+                    }
+                }
+
+                for (int px = sx0; px <= sx1; px++) {
+                    float x = px + 0.5f;
+                    float l0 = a0*x + k0, l1 = a1*x + k1, l2 = 1 - l0 - l1;
+
+                    // (span is rounded outward; exact test at its ends)
+                    if (l0 < 0 || l1 < 0 || l2 < 0)
+                        continue;
+
+                    float z = l0*tris[t+2] + l1*tris[t+11] + l2*tris[t+20];
+                    int p = row + px;
+
+                    if (z >= depthBuf[p])
+                        continue;
+
+                    if (tex != null) {
+                        // Texel at s,t (divided by interpolated 1/w), if
+                        // not transparent
+                        float q = l0*tris[t+8] + l1*tris[t+17] + l2*tris[t+26];
+                        float s = (l0*tris[t+6] + l1*tris[t+15] + l2*tris[t+24]) / q;
+                        float u = (l0*tris[t+7] + l1*tris[t+16] + l2*tris[t+25]) / q;
+                        int tx = Math.max(0, Math.min(texW-1, (int)(s * texW)));
+                        int ty = Math.max(0, Math.min(texH-1, (int)(u * texH)));
+                        int texel = tex[ty * texW + tx];
+
+                        if ((texel >>> 24) < 128)
+                            continue;
+                        depthBuf[p] = z;
+                        colorBuf[p] = texel & 0xffffff;
+                        continue;
+                    }
+                    depthBuf[p] = z;
+
+                    float r = l0*tris[t+3] + l1*tris[t+12] + l2*tris[t+21];
+                    float g = l0*tris[t+4] + l1*tris[t+13] + l2*tris[t+22];
+                    float b = l0*tris[t+5] + l1*tris[t+14] + l2*tris[t+23];
+
+                    colorBuf[p] = (clamp(r) << 16) | (clamp(g) << 8) |
+                        clamp(b);
+                }
+            }
+        }
+    }
+
+    // ---------------------------------------------------------------
+    // Matrix helpers (column-major 4x4)
+
+    private static void setIdentity(double[] m)
+    {
+        Arrays.fill(m, 0);
+        m[0] = m[5] = m[10] = m[15] = 1;
+    }
+
+    // m = m * r
+    private static void multiply(double[] m, double[] r)
+    {
+        double[] res = new double[16];
+
+        for (int col = 0; col < 4; col++) {
+            for (int row = 0; row < 4; row++) {
+                double sum = 0;
+                for (int k = 0; k < 4; k++)
+                    sum += m[row + 4*k] * r[k + 4*col];
+                res[row + 4*col] = sum;
+            }
+        }
+
+        System.arraycopy(res, 0, m, 0, 16);
+    }
+
+    // Inverse transpose of upper 3x3 of modelview (by cofactors)
+    private void computeNormalMatrix()
+    {
+        double a = model[0], b = model[4], c = model[8];
+        double d = model[1], e = model[5], f = model[9];
+        double g = model[2], h = model[6], i = model[10];
+
+        // Cofactor matrix, column-major (the scale by 1/det is not
+        // needed since normals are normalized afterwards)
+        normalMat[0] = e*i - f*h;
+        normalMat[1] = c*h - b*i;
+        normalMat[2] = b*f - c*e;
+        normalMat[3] = f*g - d*i;
+        normalMat[4] = a*i - c*g;
+        normalMat[5] = c*d - a*f;
+        normalMat[6] = d*h - e*g;
+        normalMat[7] = b*g - a*h;
+        normalMat[8] = a*e - b*d;
+
+        // Keep orientation if determinant is negative
+        double det = a*normalMat[0] + b*normalMat[3] + c*normalMat[6];
+        if (det < 0) {
+            for (int k = 0; k < 9; k++)
+                normalMat[k] = -normalMat[k];
+        }
+
+        normalMatValid = true;
+    }
+
+    // General 4x4 inverse (Gauss-Jordan with partial pivoting)
+    private static void invert(double[] m, double[] inv)
+    {
+        double[][] a = new double[4][8];
+
+        for (int r = 0; r < 4; r++) {
+            for (int c = 0; c < 4; c++)
+                a[r][c] = m[r + 4*c];
+            a[r][4 + r] = 1;
+        }
+
+        for (int c = 0; c < 4; c++) {
+            int piv = c;
+            for (int r = c+1; r < 4; r++)
+                if (Math.abs(a[r][c]) > Math.abs(a[piv][c]))
+                    piv = r;
+            double[] tmp = a[c]; a[c] = a[piv]; a[piv] = tmp;
+
+            double p = a[c][c];
+            for (int k = 0; k < 8; k++)
+                a[c][k] /= p;
+
+            for (int r = 0; r < 4; r++) {
+                if (r != c) {
+                    double f = a[r][c];
+                    for (int k = 0; k < 8; k++)
+                        a[r][k] -= f * a[c][k];
+                }
+            }
+        }
+
+        for (int r = 0; r < 4; r++)
+            for (int c = 0; c < 4; c++)
+                inv[r + 4*c] = a[r][4 + c];
+    }
+
+    private static int clamp(double v)
+    {
+        int i = (int)(v * 255 + 0.5);
+
+        return (i < 0) ? 0 : ((i > 255) ? 255 : i);
+    }
+}
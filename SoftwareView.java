@@ -0,0 +1,81 @@
+/* class SoftwareView
+ * Renders the scene with the pure-Java SoftwareRenderer (no OpenGL, no
+ * display needed) and dumps every frame (for batch rendering with
+ * -software); without a dump prefix frames are only rendered
+ *
+ */
+
+public class SoftwareView
+{
+    Scene s;
+
+    // Image size
+    private int width, height;
+
+    // Renderer and its output
+    private SoftwareRenderer renderer;
+    private byte[] pixels;
+
+    // Frame writing (null if not dumping)
+    private FrameCapture capture;
+
+    // ---------------------------------------------------------------
+
+    public SoftwareView(Scene sc, int w, int h)
+    {
+        s = sc;
+        width = w;
+        height = h;
+
+        renderer = new SoftwareRenderer(width, height,
+                                        Runtime.getRuntime().availableProcessors());
+
+        double[] f = SceneView.frustum(width, height);
+        renderer.frustum(f[0], f[1], f[2], f[3], f[4], f[5]);
+
+        // Initialize scene objects (sphere/cylinder, finest detail
+        // only for -nice)
+        Objs.initialize(renderer, s.nice ? 32 : 16, true);
+        Bug.initialize(renderer);
+
+        pixels = new byte[width*height*3];
+
+        if (s.dumpPrefix != null) {
+            capture = new FrameCapture(s.dumpPrefix);
+            capture.profiler = s.profiler;
+        }
+    }
+
+    // Render and dump the given number of frames, then wait for the
+    // output to be written
+    public void render(int frames)
+    {
+        for (int i = 0; i < frames; i++) {
+            renderFrame();
+        }
+
+        finish();
+    }
+
+    // Render (and dump) the next frame
+    public void renderFrame()
+    {
+        renderer.beginFrame();
+        s.draw(renderer);
+        renderer.finish();
+
+        if (capture != null) {
+            renderer.getPixels(pixels);
+            capture.capture(pixels, width, height, s.getFrameNumber());
+        }
+        s.incrementFrameNumber();
+    }
+
+    // Wait for the output to be written, and stop rendering threads
+    public void finish()
+    {
+        if (capture != null)
+            capture.finish();
+        renderer.shutdown();
+    }
+}
@@ -0,0 +1,297 @@
+/* class Terrain
+ * Ground of the scene: a height field without edges, cut into square
+ * tiles. Tiles are made on background threads as the eye or the main
+ * bug comes near. They are kept in a cache of at most capacity tiles
+ * (the one drawn least recently goes first) and dropped when far from
+ * both, so memory stays the same however far the bugs walk.
+ *
+ * Heights come from fractal (fBm) value noise, a function of the
+ * position alone, so separately made tiles meet without seams. Within
+ * flatRadius of the origin, where the scene's objects stand, the ground
+ * stays flat at z=0; hills rise beyond it.
+ *
+ */
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import javax.vecmath.*;
+
+class Terrain
+{
+    // Size of a tile (world units), and quads along its side (a power
+    // of two)
+    static final double tileSize = 8;
+    static final int tileQuads = 16;
+
+    // Tiles within viewRadius of the eye or the main bug are made, those
+    // further than dropRadius from both are dropped; most tiles kept
+    static double viewRadius = 48;
+    static double dropRadius = 64;
+    static int capacity = 256;
+
+    // Hills: height, size of the largest ones, number of octaves of
+    // noise; flat area around the origin, and width of the slope from
+    // it to full height
+    static final double amplitude = 4;
+    static final double featureSize = 24;
+    static final int octaves = 5;
+    static final double flatRadius = 15;
+    static final double rampWidth = 10;
+
+    // Largest on-screen size of a quad (pixels), for choosing how many
+    // to draw, and depth of the skirts along tile edges
+    static double quadPixels = 8;
+    static final double skirt = 0.5;
+
+    // Threads making tiles (shared by all terrains)
+    static ExecutorService makers = Executors.newFixedThreadPool(
+        Math.max(1, Runtime.getRuntime().availableProcessors() - 1),
+        new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "terrain");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+
+    // Make tiles on the drawing thread instead, as they are needed (so
+    // that frames rendered one by one always show the whole ground)
+    boolean synchronous = false;
+
+    private long seed;
+
+    // Tiles made, by key, least recently drawn first
+    private LinkedHashMap<Long, TerrainTile> tiles =
+        new LinkedHashMap<Long, TerrainTile>(64, 0.75f, true) {
+            protected boolean removeEldestEntry(Map.Entry<Long, TerrainTile> e) {
+                return size() > capacity;
+            }
+        };
+
+    // Keys of tiles being made, and tiles made but not taken in yet
+    private HashSet<Long> pending = new HashSet<Long>();
+    private ConcurrentLinkedQueue<TerrainTile> made =
+        new ConcurrentLinkedQueue<TerrainTile>();
+
+    // Tiles drawn and drawn flat (not made yet) in the last frame
+    int numDrawn, numMissing;
+
+    // ---------------------------------------------------------------
+
+    public Terrain(long seedVal)
+    {
+        seed = seedVal;
+    }
+
+    // Key of tile (ti, tj)
+    static long key(int ti, int tj)
+    {
+        return ((long)ti << 32) | (tj & 0xffffffffL);
+    }
+
+    // Number of tiles kept
+    public int size()
+    {
+        return tiles.size();
+    }
+
+    // Take in the tiles made since the last call, drop those far from
+    // both a and b, and start making the missing ones near either
+    // (nearest first)
+    public void update(Point3d a, Point3d b)
+    {
+        TerrainTile t;
+        while ((t = made.poll()) != null) {
+            pending.remove(t.key);
+            if (near(t.ti, t.tj, a, b, dropRadius))
+                tiles.put(t.key, t);
+        }
+
+        Iterator<TerrainTile> it = tiles.values().iterator();
+        while (it.hasNext()) {
+            t = it.next();
+            if (!near(t.ti, t.tj, a, b, dropRadius))
+                it.remove();
+        }
+
+        // Missing tiles (distance, ti, tj), nearest first
+        HashMap<Long, double[]> wanted = new HashMap<Long, double[]>();
+        want(a, a, b, wanted);
+        want(b, a, b, wanted);
+
+        Vector<double[]> order = new Vector<double[]>(wanted.values());
+        Collections.sort(order, new Comparator<double[]>() {
+                public int compare(double[] p, double[] q) {
+                    return Double.compare(p[0], q[0]);
+                }
+            });
+
+        for (double[] w : order) {
+            final int ti = (int)w[1], tj = (int)w[2];
+
+            if (synchronous) {
+                tiles.put(key(ti, tj), new TerrainTile(this, ti, tj));
+                continue;
+            }
+
+            pending.add(key(ti, tj));
+            makers.execute(new Runnable() {
+                    public void run() {
+                        made.add(new TerrainTile(Terrain.this, ti, tj));
+                    }
+                });
+        }
+    }
+
+    // Draw the tiles in the view, with fewer quads the smaller they are
+    // on screen. Tiles not made yet are drawn as one flat quad at the
+    // height of their center.
+    public void draw(Renderer r, Frustum frustum)
+    {
+        numDrawn = 0;
+        numMissing = 0;
+
+        int ti0 = (int)Math.floor((frustum.eye.x - viewRadius) / tileSize);
+        int ti1 = (int)Math.floor((frustum.eye.x + viewRadius) / tileSize);
+        int tj0 = (int)Math.floor((frustum.eye.y - viewRadius) / tileSize);
+        int tj1 = (int)Math.floor((frustum.eye.y + viewRadius) / tileSize);
+        Bounds b = new Bounds();
+
+        for (int tj = tj0; tj <= tj1; tj++) {
+            for (int ti = ti0; ti <= ti1; ti++) {
+                if (!near(ti, tj, frustum.eye, frustum.eye, viewRadius))
+                    continue;
+
+                // (a lookup counts as a use, for the cache's order)
+                TerrainTile t = tiles.get(key(ti, tj));
+
+                if (t == null) {
+                    double x0 = ti * tileSize, y0 = tj * tileSize;
+                    double h = height(x0 + tileSize/2, y0 + tileSize/2);
+
+                    b.set(x0 + tileSize/2, y0 + tileSize/2, h, tileSize);
+                    if (!frustum.isVisible(b))
+                        continue;
+
+                    r.begin(Renderer.QUADS);
+                    r.normal(0, 0, 1);
+                    r.vertex(x0, y0, h);
+                    r.vertex(x0 + tileSize, y0, h);
+                    r.vertex(x0 + tileSize, y0 + tileSize, h);
+                    r.vertex(x0, y0 + tileSize, h);
+                    r.end();
+                    numMissing++;
+                    continue;
+                }
+
+                if (!frustum.isVisible(t.bounds))
+                    continue;
+
+                // Largest stride keeping quads within quadPixels
+                int stride = tileQuads;
+                if (!t.flat) {
+                    double px = frustum.detailScale(t.bounds.center) *
+                        tileSize / tileQuads;
+
+                    stride = 1;
+                    while (stride < tileQuads && 2 * stride * px <= quadPixels)
+                        stride *= 2;
+                }
+
+                t.draw(r, stride, skirt);
+                numDrawn++;
+            }
+        }
+    }
+
+    // ---------------------------------------------------------------
+
+    // Height of the ground at (x, y)
+    public double height(double x, double y)
+    {
+        double d = Math.sqrt(x*x + y*y);
+        if (d <= flatRadius)
+            return 0;
+
+        // Smooth slope up from the flat area
+        double s = Math.min(1, (d - flatRadius) / rampWidth);
+        s = s * s * (3 - 2*s);
+
+        double sum = 0, scale = 0.5, f = 1 / featureSize;
+        for (int o = 0; o < octaves; o++) {
+            sum += scale * noise(x * f, y * f, o);
+            f *= 2;
+            scale *= 0.5;
+        }
+
+        return s * amplitude * sum;
+    }
+
+    // Value noise: random values at integer points, blended smoothly
+    // (quintic fade) in between
+    private double noise(double x, double y, int octave)
+    {
+        int ix = (int)Math.floor(x), iy = (int)Math.floor(y);
+        double u = fade(x - ix), v = fade(y - iy);
+
+        double a = lattice(ix, iy, octave), b = lattice(ix + 1, iy, octave);
+        double c = lattice(ix, iy + 1, octave), d = lattice(ix + 1, iy + 1, octave);
+
+        return a + (b - a)*u + (c - a)*v + (a - b - c + d)*u*v;
+    }
+
+    private static double fade(double t)
+    {
+        return t * t * t * (t * (t * 6 - 15) + 10);
+    }
+
+    // Random value in [-1, 1] at an integer point (as Scene.elementSeed,
+    // a hash of the seed and the point)
+    private double lattice(int ix, int iy, int octave)
+    {
+        long h = seed * 0x9E3779B97F4A7C15L + key(ix, iy) * 31 + octave;
+
+        h = (h ^ (h >>> 30)) * 0xBF58476D1CE4E5B9L;
+        h = (h ^ (h >>> 27)) * 0x94D049BB133111EBL;
+        h = h ^ (h >>> 31);
+
+        return (h >>> 11) * 0x1.0p-52 - 1;
+    }
+
+    // Whether the center of tile (ti, tj) is within radius of a or b
+    private static boolean near(int ti, int tj, Point3d a, Point3d b,
+                                double radius)
+    {
+        double cx = (ti + 0.5) * tileSize, cy = (tj + 0.5) * tileSize;
+        double ax = cx - a.x, ay = cy - a.y, bx = cx - b.x, by = cy - b.y;
+
+        return ax*ax + ay*ay <= radius*radius || bx*bx + by*by <= radius*radius;
+    }
+
+    // Add the tiles near p (within viewRadius) that are neither made nor
+    // being made to wanted, with their distance to the nearer of a and b
+    private void want(Point3d p, Point3d a, Point3d b,
+                      HashMap<Long, double[]> wanted)
+    {
+        int ti0 = (int)Math.floor((p.x - viewRadius) / tileSize);
+        int ti1 = (int)Math.floor((p.x + viewRadius) / tileSize);
+        int tj0 = (int)Math.floor((p.y - viewRadius) / tileSize);
+        int tj1 = (int)Math.floor((p.y + viewRadius) / tileSize);
+
+        for (int tj = tj0; tj <= tj1; tj++) {
+            for (int ti = ti0; ti <= ti1; ti++) {
+                long k = key(ti, tj);
+                if (!near(ti, tj, p, p, viewRadius) ||
+                    tiles.containsKey(k) || pending.contains(k))
+                    continue;
+
+                double cx = (ti + 0.5) * tileSize, cy = (tj + 0.5) * tileSize;
+                double d = Math.min((cx-a.x)*(cx-a.x) + (cy-a.y)*(cy-a.y),
+                                    (cx-b.x)*(cx-b.x) + (cy-b.y)*(cy-b.y));
+
+                wanted.put(k, new double[] { d, ti, tj });
+            }
+        }
+    }
+}
@@ -0,0 +1,120 @@
+/* class TerrainTile
+ * One square tile of the terrain: heights and normals at the corners
+ * of its quads, and its bounding sphere. Made once (on any thread) and
+ * only drawn after that.
+ *
+ */
+
+class TerrainTile
+{
+    // Tile coordinates (the tile covers [ti, ti+1] x [tj, tj+1] times
+    // Terrain.tileSize), and its key in the terrain's cache
+    int ti, tj;
+    long key;
+
+    // Heights and normals (x,y,z) of the (n+1) x (n+1) grid points,
+    // row by row, n being Terrain.tileQuads
+    private float[] heights, normals;
+
+    // Whether every height is 0 (then one quad is as good as all)
+    boolean flat = true;
+
+    Bounds bounds = new Bounds();
+
+    // ---------------------------------------------------------------
+
+    public TerrainTile(Terrain terrain, int tiVal, int tjVal)
+    {
+        ti = tiVal;
+        tj = tjVal;
+        key = Terrain.key(ti, tj);
+
+        int n = Terrain.tileQuads;
+        double spacing = Terrain.tileSize / n;
+
+        heights = new float[(n+1) * (n+1)];
+        normals = new float[3 * (n+1) * (n+1)];
+
+        double low = Double.POSITIVE_INFINITY, high = Double.NEGATIVE_INFINITY;
+
+        for (int k = 0; k <= n; k++) {
+            for (int l = 0; l <= n; l++) {
+                // (from the global grid index, so that points on the
+                // border with the next tile are exactly the same)
+                double x = (ti * n + l) * spacing;
+                double y = (tj * n + k) * spacing;
+                double h = terrain.height(x, y);
+                int at = k * (n+1) + l;
+
+                heights[at] = (float)h;
+                if (h != 0)
+                    flat = false;
+                low = Math.min(low, h);
+                high = Math.max(high, h);
+
+                // Normal from central differences
+                double dx = (terrain.height(x + spacing, y) -
+                             terrain.height(x - spacing, y)) / (2 * spacing);
+                double dy = (terrain.height(x, y + spacing) -
+                             terrain.height(x, y - spacing)) / (2 * spacing);
+                double len = Math.sqrt(dx*dx + dy*dy + 1);
+
+                normals[3*at]     = (float)(-dx / len);
+                normals[3*at + 1] = (float)(-dy / len);
+                normals[3*at + 2] = (float)(1 / len);
+            }
+        }
+
+        double half = Terrain.tileSize / 2;
+        bounds.set((ti + 0.5) * Terrain.tileSize, (tj + 0.5) * Terrain.tileSize,
+                   (low + high) / 2,
+                   Math.sqrt(2*half*half + (high - low)*(high - low)/4));
+    }
+
+    // ---------------------------------------------------------------
+
+    // Draw the tile using every stride-th grid point, with skirts of the
+    // given depth hanging from its edges (hiding cracks next to tiles
+    // drawn with another stride)
+    public void draw(Renderer r, int stride, double skirt)
+    {
+        int n = Terrain.tileQuads;
+
+        for (int k = 0; k < n; k += stride) {
+            r.begin(Renderer.QUAD_STRIP);
+            for (int l = 0; l <= n; l += stride) {
+                point(r, l, k, 0);
+                point(r, l, k + stride, 0);
+            }
+            r.end();
+        }
+
+        if (flat)
+            return;
+
+        // Bottom, top, left and right edges
+        for (int e = 0; e < 4; e++) {
+            r.begin(Renderer.QUAD_STRIP);
+            for (int i = 0; i <= n; i += stride) {
+                int l = (e < 2) ? i : ((e == 2) ? 0 : n);
+                int k = (e < 2) ? ((e == 0) ? 0 : n) : i;
+
+                point(r, l, k, 0);
+                point(r, l, k, skirt);
+            }
+            r.end();
+        }
+    }
+
+    // Give grid point (l,k), lowered by drop
+    private void point(Renderer r, int l, int k, double drop)
+    {
+        int n = Terrain.tileQuads;
+        int at = k * (n+1) + l;
+        double spacing = Terrain.tileSize / n;
+
+        r.normal(normals[3*at], normals[3*at + 1], normals[3*at + 2]);
+        r.vertex((ti * n + l) * spacing, (tj * n + k) * spacing,
+                 heights[at] - drop);
+    }
+}
@@ -0,0 +1,205 @@
+/* class TrajectoryPlayer
+ * Plays back a log written by TrajectoryRecorder: puts the critters of a
+ * scene where they were at a recorded frame, instead of simulating them.
+ * The file is memory-mapped, and the chunk holding any frame is found
+ * from the index, so seeking to a frame costs the same wherever it is
+ * (decoding at most one chunk).
+ *
+ */
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.util.*;
+
+class TrajectoryPlayer
+{
+    // Mapped log, and what its trailer/header say
+    private ByteBuffer map;
+    private int numFrames, numChunks, chunkFrames, numColumns;
+    private long indexOffset;
+
+    // Last chunk decoded: its number, frame times (seconds), critter
+    // counts and values per frame
+    private int cached = -1;
+    private double[] times;
+    private long[][] values;
+
+    // Where the next varint is read from
+    private int cursor;
+
+    // ---------------------------------------------------------------
+
+    public TrajectoryPlayer(String fileName) throws IOException
+    {
+        RandomAccessFile file = new RandomAccessFile(fileName, "r");
+        try {
+            map = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0,
+                                        file.length());
+        } finally {
+            file.close();
+        }
+
+        int end = map.capacity();
+        if (end < 16 + TrajectoryRecorder.TRAILER ||
+            map.getInt(0) != TrajectoryRecorder.MAGIC ||
+            map.getInt(end - 4) != TrajectoryRecorder.MAGIC)
+            throw new IOException("Not a trajectory log: " + fileName);
+
+        if (map.getInt(4) != TrajectoryRecorder.VERSION)
+            throw new IOException("Unknown trajectory log version: " +
+                                  map.getInt(4));
+
+        chunkFrames = map.getInt(8);
+        numColumns = map.getInt(12);
+
+        indexOffset = map.getLong(end - TrajectoryRecorder.TRAILER);
+        numFrames = map.getInt(end - 12);
+        numChunks = map.getInt(end - 8);
+
+        if (numFrames == 0)
+            throw new IOException("Empty trajectory log: " + fileName);
+    }
+
+    // Another player reading the same mapped log (each one keeps its
+    // own decoded chunk, so they can be used on different threads)
+    private TrajectoryPlayer(TrajectoryPlayer p)
+    {
+        map = p.map.duplicate();
+        numFrames = p.numFrames;
+        numChunks = p.numChunks;
+        chunkFrames = p.chunkFrames;
+        numColumns = p.numColumns;
+        indexOffset = p.indexOffset;
+    }
+    public TrajectoryPlayer copy()
+    {
+        return new TrajectoryPlayer(this);
+    }
+
+    // Number of frames recorded
+    public int getNumFrames()
+    {
+        return numFrames;
+    }
+
+    // Last frame recorded at or before time t (seconds; the first frame
+    // if t is earlier)
+    public int frameAt(double t)
+    {
+        long q = Math.round(t / TrajectoryRecorder.timeStep);
+
+        // Last chunk starting at or before t
+        int low = 0, high = numChunks - 1;
+        while (low < high) {
+            int mid = (low + high + 1) / 2;
+            if (map.getLong((int)(indexOffset + 16L*mid + 8)) <= q) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+
+        decode(low);
+
+        int f = 0;
+        while (f + 1 < times.length &&
+               times[f + 1] <= q * TrajectoryRecorder.timeStep) {
+            f++;
+        }
+        return low * chunkFrames + f;
+    }
+
+    // Put critters where they were at a frame (held at the ends of the
+    // log); critters without a record, or records without a critter,
+    // are left out. Returns the time of the frame.
+    public double apply(int frame, Vector<Critter> critters)
+    {
+        frame = Math.max(0, Math.min(numFrames - 1, frame));
+        decode(frame / chunkFrames);
+
+        long[] v = values[frame % chunkFrames];
+        int n = Math.min(critters.size(), v.length / numColumns);
+
+        for (int i = 0; i < n; i++) {
+            Critter c = critters.elementAt(i);
+            int at = i * numColumns;
+
+            c.pos.set(v[at] * TrajectoryRecorder.posStep,
+                      v[at + 1] * TrajectoryRecorder.posStep,
+                      v[at + 2] * TrajectoryRecorder.posStep);
+
+            // (bugs are drawn facing their acceleration)
+            double heading = v[at + 3] * TrajectoryRecorder.headingStep;
+            c.acc.set(Math.cos(heading), Math.sin(heading), 0);
+
+            if (c instanceof Bug) {
+                double[] param = ((Bug)c).param;
+                ((Bug)c).phase = -1;
+                for (int j = 0; j < param.length && 4 + j < numColumns; j++) {
+                    param[j] = v[at + 4 + j] * TrajectoryRecorder.paramStep;
+                }
+            }
+        }
+
+        return times[frame % chunkFrames];
+    }
+
+    // ---------------------------------------------------------------
+
+    // Decode chunk number k (unless it is the one decoded last)
+    private void decode(int k)
+    {
+        if (k == cached)
+            return;
+
+        cursor = (int)map.getLong((int)(indexOffset + 16L*k));
+        int n = (int)getVarint();
+
+        times = new double[n];
+        values = new long[n][];
+
+        long t = 0;
+        for (int f = 0; f < n; f++) {
+            t += unzigzag(getVarint());
+            times[f] = t * TrajectoryRecorder.timeStep;
+        }
+        for (int f = 0; f < n; f++) {
+            values[f] = new long[(int)getVarint() * numColumns];
+        }
+
+        for (int c = 0; c < numColumns; c++) {
+            for (int f = 0; f < n; f++) {
+                long[] v = values[f];
+                long[] prev = (f > 0) ? values[f-1] : null;
+
+                for (int at = c; at < v.length; at += numColumns) {
+                    long before = (prev != null && at < prev.length) ? prev[at] : 0;
+                    v[at] = before + unzigzag(getVarint());
+                }
+            }
+        }
+
+        cached = k;
+    }
+
+    private static long unzigzag(long v)
+    {
+        return (v >>> 1) ^ -(v & 1);
+    }
+
+    private long getVarint()
+    {
+        long v = 0;
+        int shift = 0;
+        byte b;
+
+        do {
+            b = map.get(cursor++);
+            v |= (long)(b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+
+        return v;
+    }
+}
@@ -0,0 +1,205 @@
+/* class TrajectoryRecorder
+ * Records the position, heading and leg parameters of every critter at
+ * every frame into a compact log, which TrajectoryPlayer can play back
+ * through Scene.draw without simulating (to render a recorded run again
+ * from another camera or at another size).
+ *
+ * Values are quantized to integers (see the steps below) and stored in
+ * chunks of chunkFrames frames. Within a chunk, values are stored by
+ * column (frame times, critter counts, then each quantity of each
+ * critter over the frames), each as the zigzag varint of its difference
+ * from the same value in the frame before (so a critter standing still
+ * costs one byte per quantity). The first frame of a chunk is stored
+ * as is, so any chunk can be decoded on its own.
+ *
+ * File layout (big-endian):
+ *
+ *   int     magic ('TRAJ'), version, chunkFrames, numColumns
+ *   chunks
+ *   index   long offset, long first time (quantized) per chunk
+ *   trailer long index offset, int numFrames, int numChunks, int magic
+ *
+ */
+
+import java.io.*;
+import java.util.*;
+
+class TrajectoryRecorder
+{
+    static final int MAGIC = 0x5452414A;
+    static final int VERSION = 1;
+    static final int TRAILER = 20;
+
+    // Frames per chunk
+    static final int chunkFrames = 64;
+
+    // Quantization steps: position (world units), heading (radians),
+    // leg parameters (degrees), time (seconds)
+    static final double posStep = 1e-4;
+    static final double headingStep = 1e-4;
+    static final double paramStep = 1e-3;
+    static final double timeStep = 1e-6;
+
+    // Quantities per critter: pos x, y, z, heading, leg parameters
+    static final int numParams = Bug.keyFrames[0].length;
+    static final int numColumns = 4 + numParams;
+
+    // Output file, and bytes written to it
+    private OutputStream out;
+    private long offset = 0;
+
+    // Frames of the chunk being filled: times, and numColumns values
+    // per critter
+    private long[] times = new long[chunkFrames];
+    private Vector<long[]> frames = new Vector<long[]>();
+
+    // Offsets and first times of the chunks written
+    private Vector<Long> chunkOffsets = new Vector<Long>();
+    private Vector<Long> chunkTimes = new Vector<Long>();
+
+    private int numFrames = 0;
+
+    // Chunk being encoded
+    private ByteArrayOutputStream chunk = new ByteArrayOutputStream();
+
+    // ---------------------------------------------------------------
+
+    public TrajectoryRecorder(String fileName) throws IOException
+    {
+        out = new BufferedOutputStream(new FileOutputStream(fileName));
+
+        writeInt(MAGIC);
+        writeInt(VERSION);
+        writeInt(chunkFrames);
+        writeInt(numColumns);
+    }
+
+    // Record the critters as they are at time t (seconds)
+    public synchronized void record(Vector<Critter> critters, double t)
+        throws IOException
+    {
+        if (out == null)
+            return;
+
+        long[] v = new long[critters.size() * numColumns];
+
+        for (int i = 0; i < critters.size(); i++) {
+            Critter c = critters.elementAt(i);
+            int at = i * numColumns;
+
+            v[at]     = Math.round(c.pos.x / posStep);
+            v[at + 1] = Math.round(c.pos.y / posStep);
+            v[at + 2] = Math.round(c.pos.z / posStep);
+            v[at + 3] = Math.round(Math.atan2(c.acc.y, c.acc.x) / headingStep);
+
+            if (c instanceof Bug) {
+                double[] param = ((Bug)c).param;
+                for (int j = 0; j < numParams; j++) {
+                    v[at + 4 + j] = Math.round(param[j] / paramStep);
+                }
+            }
+        }
+
+        times[frames.size()] = Math.round(t / timeStep);
+        frames.addElement(v);
+        numFrames++;
+
+        if (frames.size() == chunkFrames)
+            writeChunk();
+    }
+
+    // Write what is left, the index and the trailer
+    public synchronized void close() throws IOException
+    {
+        if (out == null)
+            return;
+
+        if (frames.size() > 0)
+            writeChunk();
+
+        long indexOffset = offset;
+        for (int i = 0; i < chunkOffsets.size(); i++) {
+            writeLong(chunkOffsets.elementAt(i));
+            writeLong(chunkTimes.elementAt(i));
+        }
+
+        writeLong(indexOffset);
+        writeInt(numFrames);
+        writeInt(chunkOffsets.size());
+        writeInt(MAGIC);
+
+        out.close();
+        out = null;
+    }
+
+    // ---------------------------------------------------------------
+
+    // Encode the frames of the current chunk, and write them
+    private void writeChunk() throws IOException
+    {
+        int n = frames.size();
+
+        chunk.reset();
+        putVarint(n);
+
+        // Times and critter counts
+        for (int f = 0; f < n; f++) {
+            putVarint(zigzag(times[f] - (f > 0 ? times[f-1] : 0)));
+        }
+        for (int f = 0; f < n; f++) {
+            putVarint(frames.elementAt(f).length / numColumns);
+        }
+
+        // Each quantity, critter by critter, frame by frame (a critter
+        // that wasn't there in the frame before starts from 0)
+        for (int c = 0; c < numColumns; c++) {
+            for (int f = 0; f < n; f++) {
+                long[] v = frames.elementAt(f);
+                long[] prev = (f > 0) ? frames.elementAt(f-1) : null;
+
+                for (int at = c; at < v.length; at += numColumns) {
+                    long before = (prev != null && at < prev.length) ? prev[at] : 0;
+                    putVarint(zigzag(v[at] - before));
+                }
+            }
+        }
+
+        chunkOffsets.addElement(offset);
+        chunkTimes.addElement(times[0]);
+
+        chunk.writeTo(out);
+        offset += chunk.size();
+
+        frames.removeAllElements();
+    }
+
+    // Map signed values to unsigned ones (small magnitudes stay small)
+    static long zigzag(long v)
+    {
+        return (v << 1) ^ (v >> 63);
+    }
+
+    // Seven bits per byte, low bits first; high bit set if more follow
+    private void putVarint(long v)
+    {
+        while ((v & ~0x7FL) != 0) {
+            chunk.write((int)((v & 0x7F) | 0x80));
+            v >>>= 7;
+        }
+        chunk.write((int)v);
+    }
+
+    private void writeInt(int v) throws IOException
+    {
+        for (int shift = 24; shift >= 0; shift -= 8) {
+            out.write(v >>> shift);
+        }
+        offset += 4;
+    }
+
+    private void writeLong(long v) throws IOException
+    {
+        writeInt((int)(v >>> 32));
+        writeInt((int)v);
+    }
+}
@@ -6,7 +6,6 @@
 
 import java.util.*;
 
-import javax.media.opengl.GL;
 import javax.vecmath.*;
 
 class Tree implements Obstacle
@@ -32,6 +31,12 @@ class Tree implements Obstacle
 
 	// Construct tree
 	tree = new TreePart(rgen, level, branching, trunkLen, trunkDiam, 0, 0, 0, 0);
+
+	// Compute bounds of every subtree (in scene coordinates)
+	Matrix4d base = new Matrix4d();
+	base.setIdentity();
+	base.setTranslation(new Vector3d(xpos, ypos, 0));
+	tree.computeBounds(base);
     }
 
     // ---------------------------------------------------------------
@@ -43,12 +48,24 @@ class Tree implements Obstacle
 	return new Point3d(xpos, ypos, 0);
     }
 
+    // Footprint of tree (its trunk)
+    public double getRadius()
+    {
+	return tree.width / 2;
+    }
+
+    // Get bounding sphere of whole tree
+    public Bounds getBounds()
+    {
+	return tree.bounds;
+    }
+
     // Draw tree in scene
-    public void draw(GL gl)
+    public void draw(Renderer r, Frustum frustum)
     {
-	gl.glPushMatrix();
-	gl.glTranslated(xpos, ypos, 0);
-	tree.draw(gl);
-	gl.glPopMatrix();
+	r.pushMatrix();
+	r.translate(xpos, ypos, 0);
+	tree.draw(r, frustum);
+	r.popMatrix();
     }
 }
@@ -5,10 +5,8 @@
  *
  */
 
-import java.nio.DoubleBuffer;
 import java.util.*;
 
-import javax.media.opengl.GL;
 import javax.vecmath.*;
 
 class TreePart
@@ -29,6 +27,10 @@ class TreePart
     
     double translation, xRotation, yRotation, zRotation;
 
+    // Bounding sphere of this part and all of its children (in scene
+    // coordinates, filled in by computeBounds)
+    Bounds bounds;
+
     // ---------------------------------------------------------------
 
     // Constructor: recursively construct a treepart of a particular depth,
@@ -82,56 +84,111 @@ class TreePart
         }
     }
 
+    // Recursively compute bounding spheres, given the transformation
+    // from the parent's frame to scene coordinates
+    public void computeBounds(Matrix4d parent)
+    {
+	// Frame of this component (same transformation as in draw(),
+	// without the scaling, which is undone before the children)
+	Matrix4d m = new Matrix4d(parent);
+	Matrix4d t = new Matrix4d();
+
+	t.setIdentity();
+	t.setTranslation(new Vector3d(0, 0, translation));
+	m.mul(t);
+	t.rotZ(Math.toRadians(zRotation));
+	m.mul(t);
+	t.rotY(Math.toRadians(yRotation));
+	m.mul(t);
+	t.rotX(Math.toRadians(xRotation));
+	m.mul(t);
+
+	Point3d c;
+	double r;
+	if (leaf) {
+	    // Leaf polygon spans [-l/2,l/2] x [0,l] x [-l/2,l/2]
+	    c = new Point3d(0, length/2, 0);
+	    r = 0.75 * length;
+	} else {
+	    // Branch cylinder of diameter width from z=0 to z=length
+	    c = new Point3d(0, 0, length/2);
+	    r = Math.sqrt(length*length + width*width) / 2;
+	}
+	m.transform(c);
+	bounds = new Bounds(c, r);
+
+	if (!leaf) {
+	    for (int i = 0; i < parts.length; i++) {
+		parts[i].computeBounds(m);
+		bounds.include(parts[i].bounds);
+	    }
+	}
+    }
+
     // Recursively draw a tree component
+    //  - skip the whole subtree if it is outside the frustum
+    //    (and leaves that are too small on screen)
     //  - place the component using transformation for this subtree
     //  - draw leaf (if this is a leaf node)
     //  - draw subtree (if this is an interior node)
     //    (draw this component, recursively draw children)
-    public void draw(GL gl)
+    public void draw(Renderer r, Frustum frustum)
     {
-	gl.glPushMatrix();
+	if (frustum != null && !frustum.isVisible(bounds))
+	    return;
+
+	// Skip leaves too small to matter (at reduced quality)
+	if (leaf && frustum != null && frustum.leafPixels > 0 &&
+	    length * frustum.pixelScale(bounds.center) < frustum.leafPixels)
+	    return;
+
+	r.pushMatrix();
 
 	// Place this component
     // (apply transformation for this component)
-	gl.glTranslated(0, 0, translation);
-	gl.glRotated(zRotation, 0, 0, 1);
-	gl.glRotated(yRotation, 0, 1, 0);
-	gl.glRotated(xRotation, 1, 0, 0);
-	gl.glScaled(width, width, length);
+	r.translate(0, 0, translation);
+	r.rotate(zRotation, 0, 0, 1);
+	r.rotate(yRotation, 0, 1, 0);
+	r.rotate(xRotation, 1, 0, 0);
+	r.scale(width, width, length);
 	
 	double xS = 1/width, yS = 1/width, zS = 1/length;
 	
 	if (leaf) {
             // Draw leaf
-		double color[] = new double[4];
-		gl.glGetDoublev(GL.GL_CURRENT_COLOR, DoubleBuffer.wrap(color));
-		gl.glColor3d(0.0, 1.0, 0.0);
-		gl.glBegin(GL.GL_POLYGON);
-		gl.glVertex3d(0.0, 0.0, 0.0);
-		gl.glVertex3d(length*xS/2, length*yS/3, length*zS/2);
-		gl.glVertex3d(length*xS/2, length*yS/3, -length*zS/2);
-		gl.glVertex3d(0.0, length*yS, 0.0);
-		gl.glVertex3d(-length*xS/2, length*yS/3, length*zS/2);
-		gl.glVertex3d(-length*xS/2, length*yS/3, -length*zS/2);
-		gl.glEnd();
+		double color[] = new double[3];
+		r.getColor(color);
+		r.color(0.0, 1.0, 0.0);
+		r.begin(Renderer.POLYGON);
+		r.vertex(0.0, 0.0, 0.0);
+		r.vertex(length*xS/2, length*yS/3, length*zS/2);
+		r.vertex(length*xS/2, length*yS/3, -length*zS/2);
+		r.vertex(0.0, length*yS, 0.0);
+		r.vertex(-length*xS/2, length*yS/3, length*zS/2);
+		r.vertex(-length*xS/2, length*yS/3, -length*zS/2);
+		r.end();
 		
-		gl.glScaled(xS, yS, zS);
-		gl.glColor3d(color[0], color[1], color[2]);
+		r.scale(xS, yS, zS);
+		r.color(color[0], color[1], color[2]);
 	} else {
             // Draw branch
 
-            // (transformation for cylinder)
+            // (transformation for cylinder, with as many segments as
+            // its on-screen width needs)
+            int n = Objs.res;
+            if (frustum != null)
+                n = Objs.detail(width * frustum.detailScale(bounds.center));
 
-            Objs.cylinder(gl);
+            Objs.cylinder(r, n);
             
-            gl.glScaled(xS, yS, zS);
+            r.scale(xS, yS, zS);
 
 	    // Recursively draw children
             for(int i=0; i<parts.length; i++){
-            	parts[i].draw(gl);
+            	parts[i].draw(r, frustum);
             }
 	}
 
-	gl.glPopMatrix();
+	r.popMatrix();
     }
 }
@@ -0,0 +1,104 @@
+/* class Y4MSink
+ * Writes all frames to a single YUV4MPEG2 (.y4m) raw video stream,
+ * with 4:2:0 chroma subsampling (half the size of RGB frames). The
+ * format has no size or frame count limit, and is read by most video
+ * tools (ffmpeg, mplayer, x264...)
+ *
+ */
+
+import java.io.*;
+
+class Y4MSink implements FrameSink
+{
+    // Output stream (header is written with the first frame)
+    private OutputStream stream;
+    private boolean headerDone = false;
+
+    // Frames per second (the frame-by-frame clock runs at 30)
+    static final int fps = 30;
+
+    // ---------------------------------------------------------------
+
+    public Y4MSink(String filename) throws IOException
+    {
+        stream = new BufferedOutputStream(new FileOutputStream(filename),
+                                          1 << 20);
+    }
+
+    // Convert to "FRAME" marker followed by Y, Cb and Cr planes
+    // (full range BT.601, as in JPEG)
+    public byte[] encode(byte[] pixels, int w, int h)
+    {
+        byte[] marker = "FRAME\n".getBytes();
+        int cw = (w+1)/2, ch = (h+1)/2;
+        byte[] data = new byte[marker.length + w*h + 2*cw*ch];
+        int yOff = marker.length;
+        int uOff = yOff + w*h;
+        int vOff = uOff + cw*ch;
+
+        System.arraycopy(marker, 0, data, 0, marker.length);
+
+        for (int cy = 0; cy < ch; cy++) {
+            for (int cx = 0; cx < cw; cx++) {
+                double usum = 0, vsum = 0;
+                int n = 0;
+
+                // 2x2 block of luma samples sharing one chroma sample
+                for (int dy = 0; dy < 2; dy++) {
+                    int y = 2*cy + dy;
+                    if (y >= h)
+                        continue;
+
+                    for (int dx = 0; dx < 2; dx++) {
+                        int x = 2*cx + dx;
+                        if (x >= w)
+                            continue;
+
+                        // GL rows are bottom to top
+                        int p = 3 * ((h-1-y)*w + x);
+                        int r = pixels[p] & 0xff;
+                        int g = pixels[p+1] & 0xff;
+                        int b = pixels[p+2] & 0xff;
+
+                        data[yOff + y*w + x] =
+                            clamp(0.299*r + 0.587*g + 0.114*b);
+                        usum += -0.168736*r - 0.331264*g + 0.5*b;
+                        vsum +=  0.5*r - 0.418688*g - 0.081312*b;
+                        n++;
+                    }
+                }
+
+                data[uOff + cy*cw + cx] = clamp(128 + usum/n);
+                data[vOff + cy*cw + cx] = clamp(128 + vsum/n);
+            }
+        }
+
+        return data;
+    }
+
+    public void write(int frame, byte[] data, int w, int h)
+        throws IOException
+    {
+        if (!headerDone) {
+            String header = "YUV4MPEG2 W" + w + " H" + h + " F" + fps +
+                ":1 Ip A1:1 C420jpeg\n";
+            stream.write(header.getBytes());
+            headerDone = true;
+        }
+
+        stream.write(data);
+    }
+
+    public void close() throws IOException
+    {
+        stream.close();
+    }
+
+    // Round and clamp to an unsigned byte
+    private static byte clamp(double v)
+    {
+        int i = (int)Math.round(v);
+
+        return (byte)(i < 0 ? 0 : (i > 255 ? 255 : i));
+    }
+}
@@ -0,0 +1,212 @@
+/* class BenchRunner
+ * Runs Benchmarks the way JMH does, without needing JMH: a number of
+ * timed warmup iterations, then measured iterations, each running the
+ * operation for a fixed time. Reports time per operation (mean and
+ * standard deviation over the iterations), bytes allocated per operation
+ * by the benchmark thread, and garbage collections during measurement.
+ *
+ * Command-line options (for the main programs using it):
+ *   -wi #       warmup iterations (default 3)
+ *   -i #        measured iterations (default 5)
+ *   -time #     milliseconds per iteration (default 1000)
+ *   -csv file   also write results as CSV
+ *   other       only run benchmarks whose name contains it
+ *
+ */
+
+import java.io.*;
+import java.lang.management.*;
+import java.text.*;
+import java.util.*;
+
+class BenchRunner
+{
+    int warmupIterations = 3;
+    int iterations = 5;
+    long iterationMillis = 1000;
+
+    // Only run benchmarks with this in their name (null runs all)
+    String filter = null;
+
+    // CSV output file (null for none)
+    String csvFile = null;
+
+    // Results (one line per benchmark)
+    private Vector<String> csv = new Vector<String>();
+
+    // Results are stored here so operations can't be removed as dead code
+    static volatile Object sink;
+
+    // ---------------------------------------------------------------
+
+    // Parse options described above
+    public BenchRunner(String[] args)
+    {
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("-wi")) {
+                warmupIterations = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("-i")) {
+                iterations = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("-time")) {
+                iterationMillis = Long.parseLong(args[++i]);
+            } else if (args[i].equals("-csv")) {
+                csvFile = args[++i];
+            } else {
+                filter = args[i];
+            }
+        }
+
+        csv.add("benchmark,ns_per_op,stddev_ns,bytes_per_op,gc_count,gc_ms");
+        System.out.println("Benchmark                       " +
+                           "          ns/op          +/-     bytes/op" +
+                           "   gc (ms)");
+    }
+
+    // Run one benchmark (if it passes the filter) and print its results
+    public void run(Benchmark b)
+    {
+        if (filter != null && b.name.indexOf(filter) < 0)
+            return;
+
+        try {
+            b.setup();
+
+            for (int i = 0; i < warmupIterations; i++) {
+                iteration(b);
+            }
+
+            long gcCount = gcCount(), gcTime = gcTime();
+            long alloc = allocated(), ops = 0;
+            double[] nsPerOp = new double[iterations];
+
+            for (int i = 0; i < iterations; i++) {
+                long[] r = iteration(b);
+                nsPerOp[i] = (double)r[1] / r[0];
+                ops += r[0];
+            }
+
+            alloc = allocated() - alloc;
+            gcCount = gcCount() - gcCount;
+            gcTime = gcTime() - gcTime;
+
+            b.teardown();
+
+            report(b.name, nsPerOp, (double)alloc / ops, gcCount, gcTime);
+        } catch (Exception e) {
+            System.out.println(b.name + ": " + e);
+            e.printStackTrace();
+        }
+    }
+
+    // Write CSV file (if asked for)
+    public void finish() throws IOException
+    {
+        if (csvFile == null)
+            return;
+
+        PrintWriter out = new PrintWriter(new FileWriter(csvFile));
+        for (String line : csv) {
+            out.println(line);
+        }
+        out.close();
+    }
+
+    // ---------------------------------------------------------------
+
+    // Run operations for iterationMillis; returns { ops, nanoseconds }
+    private long[] iteration(Benchmark b) throws Exception
+    {
+        long end = System.nanoTime() + iterationMillis * 1000000L;
+        long start = System.nanoTime(), now, ops = 0;
+
+        // Check the time only every few operations for fast benchmarks
+        int batch = 1;
+        do {
+            for (int i = 0; i < batch; i++) {
+                sink = b.run();
+            }
+            ops += batch;
+            now = System.nanoTime();
+
+            if (now - start < 1000000 && batch < (1 << 20))
+                batch *= 2;
+        } while (now < end);
+
+        return new long[] { ops, now - start };
+    }
+
+    private void report(String name, double[] nsPerOp, double bytesPerOp,
+                        long gcCount, long gcTime)
+    {
+        double mean = 0, var = 0;
+
+        for (int i = 0; i < nsPerOp.length; i++) {
+            mean += nsPerOp[i] / nsPerOp.length;
+        }
+        for (int i = 0; i < nsPerOp.length; i++) {
+            var += (nsPerOp[i] - mean) * (nsPerOp[i] - mean);
+        }
+        double dev = (nsPerOp.length > 1) ?
+            Math.sqrt(var / (nsPerOp.length - 1)) : 0;
+
+        DecimalFormat f = new DecimalFormat("0.0");
+        StringBuffer line = new StringBuffer(name);
+
+        while (line.length() < 32) {
+            line.append(' ');
+        }
+        line.append(pad(f.format(mean), 15));
+        line.append(pad(f.format(dev), 13));
+        line.append(pad(f.format(bytesPerOp), 13));
+        line.append(pad(gcCount + " (" + gcTime + ")", 10));
+
+        System.out.println(line);
+        csv.add(name + "," + mean + "," + dev + "," + bytesPerOp + "," +
+                gcCount + "," + gcTime);
+    }
+
+    private static String pad(String s, int width)
+    {
+        StringBuffer b = new StringBuffer();
+        while (b.length() + s.length() < width) {
+            b.append(' ');
+        }
+        return b.append(s).toString();
+    }
+
+    // ---------------------------------------------------------------
+    // Counters from the JVM
+
+    // Bytes allocated so far by this thread (-1 if not supported)
+    static long allocated()
+    {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean)threads)
+                .getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+
+    // Collections so far, and milliseconds spent in them (all collectors)
+    static long gcCount()
+    {
+        long n = 0;
+        for (GarbageCollectorMXBean gc :
+                 ManagementFactory.getGarbageCollectorMXBeans()) {
+            n += Math.max(0, gc.getCollectionCount());
+        }
+        return n;
+    }
+
+    static long gcTime()
+    {
+        long t = 0;
+        for (GarbageCollectorMXBean gc :
+                 ManagementFactory.getGarbageCollectorMXBeans()) {
+            t += Math.max(0, gc.getCollectionTime());
+        }
+        return t;
+    }
+}
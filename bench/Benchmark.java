@@ -0,0 +1,28 @@
+/* class Benchmark
+ * One benchmark for BenchRunner: setup() is called once, then run() is
+ * timed over many calls (each call is one operation; its result is kept
+ * so the work can't be optimized away), then teardown()
+ *
+ */
+
+abstract class Benchmark
+{
+    // Name shown in results (used for filtering)
+    String name;
+
+    public Benchmark(String nameVal)
+    {
+        name = nameVal;
+    }
+
+    void setup() throws Exception
+    {
+    }
+
+    // One operation
+    abstract Object run() throws Exception;
+
+    void teardown() throws Exception
+    {
+    }
+}
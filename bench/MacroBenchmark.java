@@ -0,0 +1,175 @@
+/* class MacroBenchmark
+ * End-to-end benchmark: builds a seed-locked stress scene (see SceneSpec),
+ * renders a fixed number of frames with the frame-by-frame clock, and
+ * reports the distribution of frame times, the heap high-water mark and
+ * garbage collections. Renders with the software renderer (headless) or,
+ * with -gl, into an OpenGL pbuffer. Run with
+ *
+ *   java -cp <classes> MacroBenchmark [-bugs #] [-rocks #] [-level #]
+ *        [-trees #] [-depth #] [-seed #] [-size WxH] [-frames #]
+ *        [-warmup #] [-poses #] [-impostors #] [-gl] [-csv file]
+ *
+ */
+
+import java.io.*;
+import java.lang.management.*;
+import java.text.*;
+import java.util.*;
+
+public class MacroBenchmark
+{
+    public static void main(String[] args) throws IOException
+    {
+        int bugs = 10, rocks = 20, level = 5, trees = 3, depth = 4;
+        long seed = 1;
+        int width = 640, height = 480;
+        int frames = 300, warmup = 30;
+        boolean gl = false;
+        String csvFile = null;
+
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("-bugs")) {
+                bugs = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("-rocks")) {
+                rocks = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("-level")) {
+                level = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("-trees")) {
+                trees = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("-depth")) {
+                depth = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("-seed")) {
+                seed = Long.parseLong(args[++i]);
+            } else if (args[i].equals("-size")) {
+                String[] size = args[++i].split("x");
+                width = Integer.parseInt(size[0]);
+                height = Integer.parseInt(size[1]);
+            } else if (args[i].equals("-frames")) {
+                frames = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("-warmup")) {
+                warmup = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("-poses")) {
+                Bug.phases = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("-impostors")) {
+                Impostors.pixels = Double.parseDouble(args[++i]);
+            } else if (args[i].equals("-gl")) {
+                gl = true;
+            } else if (args[i].equals("-csv")) {
+                csvFile = args[++i];
+            } else {
+                System.out.println("Unknown option: " + args[i]);
+                System.exit(1);
+            }
+        }
+
+        if (!gl)
+            System.setProperty("java.awt.headless", "true");
+
+        // Build scene (timed, as generation is part of the workload)
+        SceneSpec spec = new SceneSpec(bugs, rocks, level, trees, depth);
+        long start = System.nanoTime();
+        Scene s = new Scene(seed, false, 1, null, spec);
+        long buildTime = System.nanoTime() - start;
+
+        s.setFrameByFrameClock();
+        s.resetClock();
+        s.drawAnimation.set(true);
+
+        SoftwareView soft = null;
+        OffscreenView off = null;
+        if (gl) {
+            off = new OffscreenView(s, width, height);
+        } else {
+            soft = new SoftwareView(s, width, height);
+        }
+
+        // Warm up, then measure from a clean state
+        for (int i = 0; i < warmup; i++) {
+            if (gl) off.renderFrame(); else soft.renderFrame();
+        }
+        s.profiler.reset();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            pool.resetPeakUsage();
+        }
+        long gcCount = BenchRunner.gcCount(), gcTime = BenchRunner.gcTime();
+
+        long[] times = new long[frames];
+        for (int i = 0; i < frames; i++) {
+            start = System.nanoTime();
+            if (gl) off.renderFrame(); else soft.renderFrame();
+            times[i] = System.nanoTime() - start;
+        }
+
+        gcCount = BenchRunner.gcCount() - gcCount;
+        gcTime = BenchRunner.gcTime() - gcTime;
+        long heapPeak = heapPeak();
+
+        if (gl) off.finish(); else soft.finish();
+
+        // ---------------
+
+        Arrays.sort(times);
+        double total = 0;
+        for (int i = 0; i < frames; i++) {
+            total += times[i];
+        }
+
+        DecimalFormat ms = new DecimalFormat("0.00");
+        System.out.println("Scene: " + spec + ", seed " + seed);
+        System.out.println("Renderer: " + (gl ? "OpenGL" : "software") +
+                           " " + width + "x" + height + ", " + frames +
+                           " frames (" + warmup + " warmup)");
+        System.out.println("Build: " + ms.format(buildTime / 1e6) + " ms");
+        System.out.println("Frame ms: mean " + ms.format(total / frames / 1e6) +
+                           "  p50 " + ms.format(percentile(times, 0.5) / 1e6) +
+                           "  p90 " + ms.format(percentile(times, 0.9) / 1e6) +
+                           "  p99 " + ms.format(percentile(times, 0.99) / 1e6) +
+                           "  max " + ms.format(times[frames-1] / 1e6));
+        System.out.println("Heap peak: " + heapPeak / (1024*1024) + " MB");
+        System.out.println("GC: " + gcCount + " collections, " +
+                           gcTime + " ms");
+
+        System.out.println("Phases (p50 / p99 / max):");
+        String[] lines = s.profiler.summary();
+        for (int i = 0; i < lines.length; i++) {
+            System.out.println("  " + lines[i]);
+        }
+
+        if (csvFile != null) {
+            PrintWriter out = new PrintWriter(new FileWriter(csvFile));
+            out.println("bugs,rocks,level,trees,depth,seed,renderer,width," +
+                        "height,frames,build_ms,mean_ms,p50_ms,p90_ms," +
+                        "p99_ms,max_ms,heap_peak_bytes,gc_count,gc_ms");
+            out.println(bugs + "," + rocks + "," + level + "," + trees + "," +
+                        depth + "," + seed + "," + (gl ? "gl" : "software") +
+                        "," + width + "," + height + "," + frames + "," +
+                        buildTime / 1e6 + "," + total / frames / 1e6 + "," +
+                        percentile(times, 0.5) / 1e6 + "," +
+                        percentile(times, 0.9) / 1e6 + "," +
+                        percentile(times, 0.99) / 1e6 + "," +
+                        times[frames-1] / 1e6 + "," + heapPeak + "," +
+                        gcCount + "," + gcTime);
+            out.close();
+        }
+
+        System.exit(0);
+    }
+
+    // Value at fraction p of sorted times
+    private static long percentile(long[] sorted, double p)
+    {
+        int i = (int)Math.ceil(p * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, i))];
+    }
+
+    // Sum of the peak usage of all heap pools since they were reset
+    private static long heapPeak()
+    {
+        long peak = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP)
+                peak += pool.getPeakUsage().getUsed();
+        }
+        return peak;
+    }
+}
@@ -0,0 +1,133 @@
+/* class MicroBenchmarks
+ * Micro benchmarks for the scene generators and simulation kernels:
+ * rock and tree generation by level, Scene.process by number of critters,
+ * bug keyframing, attraction, and writing PPM frames to a temporary
+ * directory. Run with
+ *
+ *   java -cp <classes> MicroBenchmarks [BenchRunner options] [filter]
+ *
+ */
+
+import java.io.*;
+import java.util.*;
+
+import javax.vecmath.*;
+
+public class MicroBenchmarks
+{
+    public static void main(String[] args) throws IOException
+    {
+        BenchRunner runner = new BenchRunner(args);
+
+        // Rock generation (Rock.compute) for a grid of 2^level+1
+        for (int level = 3; level <= 10; level++) {
+            final int l = level;
+
+            runner.run(new Benchmark("Rock.compute level=" + l) {
+                    Random rgen = new Random(1);
+
+                    Object run() {
+                        return new Rock(rgen, l, 0, 0, 1);
+                    }
+                });
+        }
+
+        // Tree generation (TreePart constructor, 7 branches as in Scene)
+        for (int level = 3; level <= 6; level++) {
+            final int l = level;
+
+            runner.run(new Benchmark("TreePart level=" + l) {
+                    Random rgen = new Random(1);
+
+                    Object run() {
+                        return new TreePart(rgen, l, 7, 2.0, 0.3, 0, 0, 0, 0);
+                    }
+                });
+        }
+
+        // One frame of simulation with n critters
+        int[] critters = { 1, 100, 10000, 100000 };
+        for (int i = 0; i < critters.length; i++) {
+            final int n = critters[i];
+
+            runner.run(new Benchmark("Scene.process critters=" + n) {
+                    Scene s;
+
+                    void setup() {
+                        s = new Scene(1, false, 1, null);
+                        s.setFrameByFrameClock();
+                        s.resetClock();
+
+                        Random rgen = new Random(2);
+                        while (s.critters.size() < n) {
+                            s.critters.add(new Bug(rgen, 0.6,
+                                                   rgen.nextGaussian() * 5,
+                                                   rgen.nextGaussian() * 5,
+                                                   0.1, 0));
+                        }
+                    }
+
+                    Object run() {
+                        s.incrementFrameNumber();
+                        s.process();
+                        return s;
+                    }
+                });
+        }
+
+        // Keyframing and attraction for one bug
+        runner.run(new Benchmark("Bug.keyframe") {
+                Bug bug = new Bug(new Random(1), 0.6, 0, 0, 0.1, 0);
+                double t = 0;
+
+                Object run() {
+                    t += 0.01;
+                    bug.keyframe(t);
+                    return bug.param;
+                }
+            });
+
+        runner.run(new Benchmark("Critter.accelAttract") {
+                Bug bug = new Bug(new Random(1), 0.6, 0, 0, 0.1, 0);
+                Point3d p = new Point3d(3, 4, 0);
+
+                Object run() {
+                    bug.accelAttract(p, 0.4, 0.1);
+                    return bug.acc;
+                }
+            });
+
+        // Encoding and writing a 640x480 frame as PPM (cycles through ten
+        // file names)
+        runner.run(new Benchmark("PNMSink.write 640x480") {
+                File dir;
+                PNMSink sink;
+                byte[] pixels = new byte[640*480*3];
+                int frame = 0;
+
+                void setup() throws IOException {
+                    dir = File.createTempFile("bench", "");
+                    dir.delete();
+                    dir.mkdir();
+                    sink = new PNMSink(dir.getPath() + File.separator + "f");
+                    new Random(1).nextBytes(pixels);
+                }
+
+                Object run() throws IOException {
+                    byte[] data = sink.encode(pixels, 640, 480);
+                    sink.write(frame++ % 10, data, 640, 480);
+                    return data;
+                }
+
+                void teardown() {
+                    File[] files = dir.listFiles();
+                    for (int i = 0; i < files.length; i++) {
+                        files[i].delete();
+                    }
+                    dir.delete();
+                }
+            });
+
+        runner.finish();
+    }
+}